@@ -0,0 +1,86 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.platform.yui.compressor.CssCompressor;
+
+/**
+ * Benchmarks for Javascript and CSS compression.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressorBenchmark {
+
+    @Param({ "50", "500" })
+    public int fileCount;
+
+    @Param({ "4000" })
+    public int fileSize;
+
+    @Param({ "4" })
+    public int fanOut;
+
+    @Param({ "8" })
+    public int depth;
+
+    private SyntheticTree tree;
+    private String css;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tree = new SyntheticTree(fileCount, fileSize, fanOut, depth, 42);
+        StringBuilder data = new StringBuilder();
+        for (File file : tree.getCssFiles()) {
+            data.append(new String(CompressionCache.readFile(file), "UTF-8"));
+        }
+        css = data.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tree.delete();
+    }
+
+    @Benchmark
+    public String compressNormal() throws MojoFailureException {
+        return new JSCompressor(false, Charset.forName("UTF-8")).compress(tree.getLibraryFiles(), false);
+    }
+
+    @Benchmark
+    public String compressProper() throws MojoFailureException {
+        return new JSCompressor(true, Charset.forName("UTF-8")).compress(tree.getLibraryFiles(), false);
+    }
+
+    @Benchmark
+    public String compressCSS() throws IOException {
+        StringWriter out = new StringWriter();
+        new CssCompressor(new StringReader(css)).compress(out, -1);
+        return out.toString();
+    }
+}
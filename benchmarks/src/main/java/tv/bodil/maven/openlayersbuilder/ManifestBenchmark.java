@@ -0,0 +1,89 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for manifest evaluation and dependency resolution.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ManifestBenchmark {
+
+    @Param({ "500", "5000" })
+    public int fileCount;
+
+    @Param({ "4000" })
+    public int fileSize;
+
+    @Param({ "4" })
+    public int fanOut;
+
+    @Param({ "8" })
+    public int depth;
+
+    private SyntheticTree tree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tree = new SyntheticTree(fileCount, fileSize, fanOut, depth, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tree.delete();
+    }
+
+    @Benchmark
+    public void parseDependencies(Blackhole bh) throws IOException {
+        for (File file : tree.getLibraryFiles()) {
+            bh.consume(Manifest.parseDependencies(file));
+        }
+    }
+
+    @Benchmark
+    public void parseDependenciesHeaderOnly(Blackhole bh) throws IOException {
+        RequiresScanner scanner = new RequiresScanner(true);
+        for (File file : tree.getLibraryFiles()) {
+            bh.consume(scanner.scan(file));
+        }
+    }
+
+    @Benchmark
+    public Collection<File> buildDependencyTree() throws IOException, MojoFailureException {
+        // A fresh manifest each time, so nothing is memoized between invocations
+        Manifest m = new Manifest(tree.getManifest(), null);
+        return m.buildDependencyTree(tree.getAppFiles(), tree.getLibraryRoot());
+    }
+
+    @Benchmark
+    public Collection<File> buildFileList() throws MojoExecutionException {
+        Manifest m = new Manifest(tree.getManifest(), null);
+        return m.buildFileList(new String[] { SyntheticTree.DEPS_FIELD, SyntheticTree.CSS_FIELD });
+    }
+}
@@ -0,0 +1,188 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates a deterministic OpenLayers-like source tree for benchmarking.
+ *
+ * Library files are spread over a number of levels; each file requires
+ * up to fanOut files from the level below it, so depth controls the
+ * length of the longest @requires chain. A manifest lists a set of
+ * application files requiring files from the top level, plus some CSS.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class SyntheticTree {
+    public static final String DEPS_FIELD = "deps";
+    public static final String JS_FIELD = "js";
+    public static final String CSS_FIELD = "css";
+
+    private final File root;
+    private final File libraryRoot;
+    private final File manifest;
+    private final List<File> libraryFiles = new ArrayList<File>();
+    private final List<File> appFiles = new ArrayList<File>();
+    private final List<File> cssFiles = new ArrayList<File>();
+
+    /**
+     * Generate a tree in a new temporary directory.
+     *
+     * @param fileCount number of library files
+     * @param fileSize approximate size of each file in bytes
+     * @param fanOut maximum number of @requires per file
+     * @param depth number of dependency levels
+     * @param seed random seed
+     * @throws IOException on IO error
+     */
+    public SyntheticTree(int fileCount, int fileSize, int fanOut, int depth, long seed) throws IOException {
+        Random random = new Random(seed);
+        root = File.createTempFile("synthetic", "");
+        root.delete();
+        libraryRoot = new File(root, "lib");
+        manifest = new File(root, "manifest.js");
+
+        depth = Math.max(1, Math.min(depth, fileCount));
+        List<List<String>> levels = new ArrayList<List<String>>();
+        for (int level = 0; level < depth; level++) {
+            levels.add(new ArrayList<String>());
+        }
+        for (int i = 0; i < fileCount; i++) {
+            int level = i * depth / fileCount;
+            String name = "OpenLayers/Level" + level + "/Class" + i + ".js";
+            levels.get(level).add(name);
+            Set<String> requires = pickFrom(level > 0 ? levels.get(level - 1) : null, fanOut, random);
+            File file = new File(libraryRoot, name);
+            writeJS(file, "OpenLayers.Level" + level + ".Class" + i, requires, fileSize, random);
+            libraryFiles.add(file);
+        }
+
+        List<String> top = levels.get(depth - 1);
+        int appCount = Math.max(1, fileCount / 50);
+        for (int i = 0; i < appCount; i++) {
+            File file = new File(root, "app/Page" + i + ".js");
+            writeJS(file, "App.Page" + i, pickFrom(top, fanOut, random), fileSize, random);
+            appFiles.add(file);
+        }
+        for (int i = 0; i < Math.max(1, fileCount / 100); i++) {
+            File file = new File(root, "css/style" + i + ".css");
+            writeCSS(file, i, fileSize, random);
+            cssFiles.add(file);
+        }
+
+        StringBuilder m = new StringBuilder();
+        m.append("var ").append(DEPS_FIELD).append(" = [\n");
+        for (File file : appFiles) {
+            m.append("    \"app/").append(file.getName()).append("\",\n");
+        }
+        m.append("];\nvar ").append(JS_FIELD).append(" = ").append(DEPS_FIELD).append(";\nvar ").append(CSS_FIELD).append(" = [\n");
+        for (File file : cssFiles) {
+            m.append("    \"css/").append(file.getName()).append("\",\n");
+        }
+        m.append("];\n");
+        write(manifest, m.toString());
+    }
+
+    private static Set<String> pickFrom(List<String> candidates, int count, Random random) {
+        Set<String> picked = new LinkedHashSet<String>();
+        if (candidates != null && !candidates.isEmpty()) {
+            for (int i = 0; i < count; i++) {
+                picked.add(candidates.get(random.nextInt(candidates.size())));
+            }
+        }
+        return picked;
+    }
+
+    private static void writeJS(File file, String className, Set<String> requires, int size, Random random) throws IOException {
+        StringBuilder js = new StringBuilder();
+        js.append("/* Copyright (c) 2006-2010 Synthetic Benchmark Contributors.\n * Generated for benchmarking only. */\n\n/**\n");
+        for (String require : requires) {
+            js.append(" * @requires ").append(require).append('\n');
+        }
+        js.append(" */\n\n/**\n * Class: ").append(className).append("\n */\n");
+        js.append(className).append(" = OpenLayers.Class({\n");
+        int method = 0;
+        while (js.length() < size) {
+            String local = "value" + random.nextInt(1000);
+            js.append("\n    /**\n     * APIMethod: method").append(method).append("\n     */\n");
+            js.append("    method").append(method).append(": function(").append(local).append(") {\n");
+            js.append("        var result = ").append(local).append(" * ").append(random.nextInt(100)).append(";\n");
+            js.append("        if (result > ").append(random.nextInt(1000)).append(") {\n");
+            js.append("            this.counter = (this.counter || 0) + result;\n        }\n");
+            js.append("        return result;\n    },\n");
+            method++;
+        }
+        js.append("\n    CLASS_NAME: \"").append(className).append("\"\n});\n");
+        write(file, js.toString());
+    }
+
+    private static void writeCSS(File file, int index, int size, Random random) throws IOException {
+        StringBuilder css = new StringBuilder("/* Generated stylesheet " + index + " */\n");
+        int rule = 0;
+        while (css.length() < size) {
+            css.append(".olControl").append(index).append('_').append(rule++).append(" {\n");
+            css.append("    margin: ").append(random.nextInt(20)).append("px 0px 0px 0px;\n");
+            css.append("    color: #").append(Integer.toHexString(0x100000 + random.nextInt(0xefffff))).append(";\n}\n\n");
+        }
+        write(file, css.toString());
+    }
+
+    private static void write(File file, String data) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Delete the generated tree.
+     */
+    public void delete() {
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public File getLibraryRoot() {
+        return libraryRoot;
+    }
+
+    public File getManifest() {
+        return manifest;
+    }
+
+    public List<File> getLibraryFiles() {
+        return libraryFiles;
+    }
+
+    public List<File> getAppFiles() {
+        return appFiles;
+    }
+
+    public List<File> getCssFiles() {
+        return cssFiles;
+    }
+}
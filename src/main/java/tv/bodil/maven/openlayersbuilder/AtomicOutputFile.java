@@ -0,0 +1,142 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An output file that is written to a temporary file next to its target
+ * and renamed into place when complete. If the new content is identical
+ * to the existing target, the target is left untouched.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class AtomicOutputFile {
+    private final File target;
+    private final File tmp;
+    private final FileOutputStream out;
+    private boolean closed = false;
+
+    /**
+     * Constructor. Creates the temporary file and any missing parent directories.
+     *
+     * @param target file to write
+     * @throws IOException on IO error
+     */
+    public AtomicOutputFile(File target) throws IOException {
+        this.target = target.getAbsoluteFile();
+        this.target.getParentFile().mkdirs();
+        tmp = File.createTempFile(target.getName(), ".tmp", this.target.getParentFile());
+        out = new FileOutputStream(tmp);
+    }
+
+    /**
+     * @return the stream writing to the temporary file
+     */
+    public FileOutputStream getStream() {
+        return out;
+    }
+
+    /**
+     * @return the file that will be replaced on commit
+     */
+    public File getTarget() {
+        return target;
+    }
+
+    /**
+     * Close the temporary file and hash its content.
+     *
+     * @return hex encoded SHA-1 hash of everything written
+     * @throws IOException on IO error
+     */
+    public String contentHash() throws IOException {
+        close();
+        return CompressionCache.hashFile(tmp);
+    }
+
+    /**
+     * Close the temporary file and move it into place.
+     *
+     * @return true if the target was changed, false if it already had the same content
+     * @throws IOException on IO error
+     */
+    public boolean commit() throws IOException {
+        return commit(target);
+    }
+
+    /**
+     * Close the temporary file and move it into place under another name,
+     * which must be in the same directory as the original target.
+     *
+     * @param target file to replace
+     * @return true if the target was changed, false if it already had the same content
+     * @throws IOException on IO error
+     */
+    public boolean commit(File target) throws IOException {
+        close();
+        if (target.isFile() && contentEquals(tmp, target)) {
+            tmp.delete();
+            return false;
+        }
+        try {
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IOException("Unable to move " + tmp.toString() + " to " + target.toString() + ": " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Discard the temporary file, leaving the target untouched.
+     */
+    public void abort() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Nothing useful to do here; the file is going away anyway
+        }
+        tmp.delete();
+    }
+
+    private void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            out.close();
+        }
+    }
+
+    static boolean contentEquals(File a, File b) throws IOException {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        InputStream inA = new BufferedInputStream(new FileInputStream(a));
+        try {
+            InputStream inB = new BufferedInputStream(new FileInputStream(b));
+            try {
+                int c;
+                while ((c = inA.read()) != -1) {
+                    if (c != inB.read()) {
+                        return false;
+                    }
+                }
+                return inB.read() == -1;
+            } finally {
+                inB.close();
+            }
+        } finally {
+            inA.close();
+        }
+    }
+}
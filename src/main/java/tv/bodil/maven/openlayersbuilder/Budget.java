@@ -0,0 +1,52 @@
+package tv.bodil.maven.openlayersbuilder;
+
+/**
+ * A size limit for a bundle or a group of files within bundles.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class Budget {
+
+    /**
+     * Name of the bundle (eg. dist.js) or group (eg. OpenLayers/Layer, or
+     * application) the budget applies to. Names ending in .js or .css are
+     * bundles.
+     *
+     * @parameter
+     * @required
+     */
+    private String name;
+
+    /**
+     * Largest allowed size in bytes, after compression. For a group, this
+     * is the total over every bundle the group appears in, including the
+     * groups below it. With variants, each variant is checked on its own.
+     *
+     * @parameter
+     * @required
+     */
+    private long maxBytes;
+
+    public Budget() {
+    }
+
+    public Budget(String name, long maxBytes) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return true if the budget is for a bundle rather than a group, going by its .js or .css extension
+     */
+    boolean isBundle() {
+        return name != null && (name.endsWith(".js") || name.endsWith(".css"));
+    }
+}
@@ -0,0 +1,147 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Collects timings and counters for a build, and writes them out as JSON.
+ * Safe to use from several threads at once. The peak heap usage reported
+ * is the JVM's, since it started, for each heap memory pool separately;
+ * the pools peak at different times, so their peaks don't add up to the
+ * peak of the whole heap. Other builds running in the same JVM, such as
+ * other modules of a parallel reactor, count towards them too.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class BuildReport {
+    public static final String MANIFEST = "manifest";
+    public static final String INDEX = "dependencyIndex";
+    public static final String SCAN = "dependencyScan";
+    public static final String SORT = "topologicalSort";
+    public static final String PRUNE = "pruning";
+    public static final String READ = "fileRead";
+    public static final String COMPRESS_LIBRARY = "libraryCompression";
+    public static final String COMPRESS_APPLICATION = "applicationCompression";
+    public static final String COMPRESS_CSS = "cssCompression";
+    public static final String WRITE = "outputWrite";
+
+    private final long start = System.nanoTime();
+    private final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+    private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+    /**
+     * Record time spent in a phase. A phase may be recorded several times,
+     * possibly concurrently; the times are added up.
+     *
+     * @param phase name of the phase
+     * @param startNanos value of System.nanoTime() when the phase started
+     */
+    public synchronized void time(String phase, long startNanos) {
+        long[] entry = phases.get(phase);
+        if (entry == null) {
+            entry = new long[2];
+            phases.put(phase, entry);
+        }
+        entry[0] += System.nanoTime() - startNanos;
+        entry[1]++;
+    }
+
+    /**
+     * Add to a counter.
+     *
+     * @param name name of the counter
+     * @param delta amount to add
+     */
+    public synchronized void count(String name, long delta) {
+        Long value = counters.get(name);
+        counters.put(name, Long.valueOf((value == null ? 0 : value.longValue()) + delta));
+    }
+
+    /**
+     * Get the value of a counter.
+     *
+     * @param name name of the counter
+     * @return the value, or 0 if nothing has been counted
+     */
+    public synchronized long get(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value.longValue();
+    }
+
+    private static Map<String, Long> jvmPeakHeapPools() {
+        Map<String, Long> peaks = new LinkedHashMap<String, Long>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+                peaks.put(pool.getName(), Long.valueOf(pool.getPeakUsage().getUsed()));
+            }
+        }
+        return peaks;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 10000.0) / 100.0;
+    }
+
+    /**
+     * @return the report as a map, ready for serialising
+     */
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("totalMillis", Double.valueOf(millis(System.nanoTime() - start)));
+        Map<String, Object> phaseMap = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            Map<String, Object> entry = new LinkedHashMap<String, Object>();
+            entry.put("millis", Double.valueOf(millis(phase.getValue()[0])));
+            entry.put("count", Long.valueOf(phase.getValue()[1]));
+            phaseMap.put(phase.getKey(), entry);
+        }
+        report.put("phases", phaseMap);
+        report.put("counters", new LinkedHashMap<String, Long>(counters));
+        long lookups = get("cacheHits") + get("cacheMisses");
+        if (lookups > 0) {
+            report.put("cacheHitRate", Double.valueOf(get("cacheHits") / (double) lookups));
+        }
+        report.put("jvmPeakHeapPoolBytes", jvmPeakHeapPools());
+        return report;
+    }
+
+    /**
+     * Write the report to a file as JSON.
+     *
+     * @param file file to write
+     * @throws IOException on IO error
+     */
+    public void write(File file) throws IOException {
+        Json.write(file, toMap());
+    }
+
+    /**
+     * Log a summary of the report.
+     *
+     * @param log log to write to
+     */
+    public synchronized void summarise(Log log) {
+        StringBuilder timings = new StringBuilder("Build timings:");
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            timings.append(' ').append(phase.getKey()).append('=').append(millis(phase.getValue()[0])).append("ms");
+        }
+        log.info(timings.toString());
+        StringBuilder totals = new StringBuilder("Build totals:");
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            totals.append(' ').append(counter.getKey()).append('=').append(counter.getValue());
+        }
+        log.info(totals.toString());
+        StringBuilder heap = new StringBuilder("Peak heap by pool:");
+        for (Map.Entry<String, Long> pool : jvmPeakHeapPools().entrySet()) {
+            heap.append(' ').append(pool.getKey()).append('=').append(pool.getValue());
+        }
+        log.info(heap.toString());
+    }
+}
@@ -0,0 +1,159 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Splits the files of several entrypoints into chunks, so that every file
+ * used by more than one entrypoint goes into a shared chunk.
+ *
+ * Files are grouped by the exact set of entrypoints using them. Since a
+ * file's dependencies are used by at least the same entrypoints as the
+ * file itself, they always end up in the same chunk or in a chunk shared
+ * by more entrypoints, so loading chunks in order of decreasing sharing
+ * keeps dependencies first.
+ *
+ * Entrypoint names must not start with "shared-", which is reserved for
+ * chunk names.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class ChunkSplitter {
+
+    /**
+     * A group of files used by the same set of entrypoints.
+     */
+    public static class Chunk {
+        private final String name;
+        private final SortedSet<String> entrypoints;
+        private final List<File> files = new ArrayList<File>();
+
+        Chunk(String name, SortedSet<String> entrypoints) {
+            this.name = name;
+            this.entrypoints = entrypoints;
+        }
+
+        /**
+         * @return the chunk name: the entrypoint name for files used by one
+         *         entrypoint, "shared-" followed by both entrypoint names for
+         *         files used by two, otherwise "shared-" followed by a short
+         *         hash of the entrypoint names
+         */
+        public String getName() {
+            return name;
+        }
+
+        public SortedSet<String> getEntrypoints() {
+            return entrypoints;
+        }
+
+        public List<File> getFiles() {
+            return files;
+        }
+    }
+
+    static final String SHARED_PREFIX = "shared-";
+    private static final int HASH_CHARS = 8;
+
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+    private final Map<String, List<Chunk>> chunksByEntrypoint = new LinkedHashMap<String, List<Chunk>>();
+
+    /**
+     * Split a set of entrypoints into chunks.
+     *
+     * @param entrypointFiles the files needed by each entrypoint, each list in dependency order
+     */
+    public ChunkSplitter(Map<String, ? extends Collection<File>> entrypointFiles) {
+        // Merge the per-entrypoint orders; each list is closed under its dependencies,
+        // so first appearance order keeps dependencies before the files needing them
+        LinkedHashSet<File> order = new LinkedHashSet<File>();
+        Map<File, SortedSet<String>> usage = new HashMap<File, SortedSet<String>>();
+        for (Map.Entry<String, ? extends Collection<File>> entry : entrypointFiles.entrySet()) {
+            for (File file : entry.getValue()) {
+                order.add(file);
+                SortedSet<String> users = usage.get(file);
+                if (users == null) {
+                    users = new TreeSet<String>();
+                    usage.put(file, users);
+                }
+                users.add(entry.getKey());
+            }
+        }
+
+        Map<SortedSet<String>, Chunk> chunkByUsers = new HashMap<SortedSet<String>, Chunk>();
+        Set<String> names = new HashSet<String>();
+        for (File file : order) {
+            SortedSet<String> users = usage.get(file);
+            Chunk chunk = chunkByUsers.get(users);
+            if (chunk == null) {
+                String name = chunkName(users);
+                if (!names.add(name)) {
+                    // Two pairs of hyphenated names can spell the same thing, eg. a-b + c and a + b-c
+                    name = hashedName(users);
+                    names.add(name);
+                }
+                chunk = new Chunk(name, users);
+                chunkByUsers.put(users, chunk);
+                chunks.add(chunk);
+            }
+            chunk.files.add(file);
+        }
+
+        Collections.sort(chunks, new Comparator<Chunk>() {
+            public int compare(Chunk a, Chunk b) {
+                if (a.entrypoints.size() != b.entrypoints.size()) {
+                    return b.entrypoints.size() - a.entrypoints.size();
+                }
+                return a.name.compareTo(b.name);
+            }
+        });
+        for (String entrypoint : entrypointFiles.keySet()) {
+            List<Chunk> needed = new ArrayList<Chunk>();
+            for (Chunk chunk : chunks) {
+                if (chunk.entrypoints.contains(entrypoint)) {
+                    needed.add(chunk);
+                }
+            }
+            chunksByEntrypoint.put(entrypoint, needed);
+        }
+    }
+
+    private static String chunkName(SortedSet<String> users) {
+        if (users.size() == 1) {
+            return users.first();
+        } else if (users.size() > 2) {
+            return hashedName(users);
+        }
+        return SHARED_PREFIX + users.first() + "-" + users.last();
+    }
+
+    private static String hashedName(SortedSet<String> users) {
+        return SHARED_PREFIX + CompressionCache.key("chunk", "", users.toArray(new String[users.size()])).substring(0, HASH_CHARS);
+    }
+
+    /**
+     * @return all chunks, in load order
+     */
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return the chunks each entrypoint needs, in load order
+     */
+    public Map<String, List<Chunk>> getChunksByEntrypoint() {
+        return chunksByEntrypoint;
+    }
+}
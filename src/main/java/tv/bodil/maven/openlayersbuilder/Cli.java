@@ -0,0 +1,314 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Command line entry point, running the package goal without Maven.
+ *
+ * Takes the same parameters as the package goal, as --name value or
+ * --name=value. Lists are comma separated, and boolean parameters given
+ * without a value are set to true. Parameters can also be read from a
+ * JSON file with --config, where entrypoints and budgets are given as
+ * lists of objects; options on the command line override the file.
+ * Defaults are read from the plugin descriptor, with
+ * ${project.build.directory} taken from --buildDirectory (default target).
+ *
+ * Startup time is mostly spent loading classes, which a class data
+ * sharing archive avoids on Java 13 or later. The cli profile writes a
+ * launcher script, target/openlayersbuilder, next to the jar; it creates
+ * the archive on its first run with -XX:ArchiveClassesAtExit and starts
+ * from it with -XX:SharedArchiveFile after that.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class Cli {
+    static final String DESCRIPTOR = "META-INF/maven/plugin.xml";
+    static final String GOAL = "package";
+    private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    private Cli() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Run a build.
+     *
+     * @param args command line arguments
+     * @return exit status: 0 on success, 1 if the build failed, 2 on a build error, 3 on bad arguments
+     */
+    static int run(String[] args) {
+        Packager packager = new Packager();
+        try {
+            Map<String, Object> options = parseArguments(args);
+            if (options.containsKey("help")) {
+                usage();
+                return 0;
+            }
+            Object buildDirectory = options.remove("buildDirectory");
+            List<String> required = new ArrayList<String>();
+            Map<String, Object> config = readDefaults(new File(buildDirectory != null ? buildDirectory.toString() : "target"), required);
+            Object configFile = options.remove("config");
+            if (configFile != null) {
+                config.putAll(readConfig(new File(configFile.toString())));
+            }
+            config.putAll(options);
+            for (String name : required) {
+                if (config.get(name) == null) {
+                    throw new IllegalArgumentException("Missing required parameter: " + name);
+                }
+            }
+            configure(packager, config);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            return 3;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 3;
+        }
+        try {
+            packager.execute();
+            return 0;
+        } catch (MojoFailureException e) {
+            packager.getLog().error(e.getMessage());
+            return 1;
+        } catch (MojoExecutionException e) {
+            packager.getLog().error(e.getMessage());
+            return 2;
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -jar maven-openlayersbuilder-plugin-cli.jar [--config file.json] [--buildDirectory dir] [--parameter value ...]");
+        System.err.println("Parameters are those of the openlayersbuilder:package goal, eg. --manifest src/main/js/manifest.js --manifestJsFields js");
+    }
+
+    /**
+     * Parse command line arguments into parameter values.
+     *
+     * @param args arguments
+     * @return parameter values, as strings; flags without a value are given as "true"
+     */
+    static Map<String, Object> parseArguments(String[] args) {
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--") || arg.length() == 2) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String name = arg.substring(2);
+            int equals = name.indexOf('=');
+            if (equals >= 0) {
+                options.put(name.substring(0, equals), name.substring(equals + 1));
+            } else if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Read the default parameter values of the package goal from the plugin descriptor.
+     *
+     * @param buildDirectory value of ${project.build.directory}
+     * @param required list to add the names of required parameters to
+     * @return default values of the parameters that have one
+     * @throws IOException if the descriptor can't be read
+     */
+    static Map<String, Object> readDefaults(File buildDirectory, List<String> required) throws IOException {
+        Map<String, Object> defaults = new LinkedHashMap<String, Object>();
+        InputStream in = Cli.class.getClassLoader().getResourceAsStream(DESCRIPTOR);
+        if (in == null) {
+            throw new IOException("Plugin descriptor " + DESCRIPTOR + " not found; run the jar built by the cli profile");
+        }
+        Document descriptor;
+        try {
+            descriptor = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Unable to read plugin descriptor: " + e.getMessage());
+        } catch (SAXException e) {
+            throw new IOException("Unable to read plugin descriptor: " + e.getMessage());
+        } finally {
+            in.close();
+        }
+        NodeList mojos = descriptor.getElementsByTagName("mojo");
+        for (int i = 0; i < mojos.getLength(); i++) {
+            Element mojo = (Element) mojos.item(i);
+            if (!GOAL.equals(childText(mojo, "goal"))) {
+                continue;
+            }
+            NodeList parameters = mojo.getElementsByTagName("parameter");
+            for (int j = 0; j < parameters.getLength(); j++) {
+                Element parameter = (Element) parameters.item(j);
+                if ("true".equals(childText(parameter, "required"))) {
+                    required.add(childText(parameter, "name"));
+                }
+            }
+            NodeList configurations = mojo.getElementsByTagName("configuration");
+            if (configurations.getLength() == 0) {
+                break;
+            }
+            for (Node node = configurations.item(0).getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node.getNodeType() != Node.ELEMENT_NODE) {
+                    continue;
+                }
+                Element parameter = (Element) node;
+                String value = parameter.getTextContent().trim();
+                if (value.length() == 0) {
+                    value = parameter.getAttribute("default-value");
+                }
+                value = evaluate(value, buildDirectory);
+                if (value != null && value.length() > 0) {
+                    defaults.put(parameter.getTagName(), value);
+                }
+            }
+        }
+        return defaults;
+    }
+
+    private static String childText(Element element, String name) {
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && ((Element) node).getTagName().equals(name)) {
+                return node.getTextContent().trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evaluate the Maven expressions in a default value.
+     *
+     * @return the value, or null if it refers to anything other than the build directory or base directory
+     */
+    static String evaluate(String value, File buildDirectory) {
+        Matcher matcher = EXPRESSION.matcher(value);
+        StringBuffer out = new StringBuffer();
+        while (matcher.find()) {
+            String expression = matcher.group(1);
+            String replacement;
+            if (expression.equals("project.build.directory")) {
+                replacement = buildDirectory.getPath();
+            } else if (expression.equals("basedir") || expression.equals("project.basedir")) {
+                replacement = new File("").getAbsolutePath();
+            } else {
+                return null;
+            }
+            matcher.appendReplacement(out, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(out);
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readConfig(File file) throws IOException {
+        Object config;
+        try {
+            config = Json.parse(new String(CompressionCache.readFile(file), CompressionCache.CHARSET));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unable to parse " + file + ": " + e.getMessage());
+        }
+        if (!(config instanceof Map<?, ?>)) {
+            throw new IOException(file + " should contain a JSON object");
+        }
+        return (Map<String, Object>) config;
+    }
+
+    /**
+     * Set the parameters of a mojo, the way Maven would.
+     *
+     * @param target the mojo, or a complex parameter value
+     * @param values parameter values: strings, numbers, booleans, lists or maps
+     */
+    static void configure(Object target, Map<String, Object> values) {
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            Field field = findField(target.getClass(), value.getKey());
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown parameter: " + value.getKey());
+            }
+            try {
+                field.setAccessible(true);
+                field.set(target, convert(value.getValue(), field.getType(), value.getKey()));
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Unable to set parameter " + value.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(name);
+                if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+                    return field;
+                }
+            } catch (NoSuchFieldException e) {
+                // Try the superclass
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object convert(Object value, Class<?> type, String name) {
+        try {
+            if (value == null) {
+                return type.isPrimitive() ? convert("0", type, name) : null;
+            } else if (type == String.class) {
+                return value.toString();
+            } else if (type == File.class) {
+                return new File(value.toString());
+            } else if (type == boolean.class || type == Boolean.class) {
+                return Boolean.valueOf(value.toString());
+            } else if (type == int.class || type == Integer.class) {
+                return Integer.valueOf(value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim()));
+            } else if (type == long.class || type == Long.class) {
+                return Long.valueOf(value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim()));
+            } else if (type.isArray()) {
+                Object[] items = value instanceof List<?> ? ((List<?>) value).toArray() : value.toString().split("\\s*,\\s*");
+                Object array = Array.newInstance(type.getComponentType(), items.length);
+                for (int i = 0; i < items.length; i++) {
+                    Array.set(array, i, convert(items[i], type.getComponentType(), name));
+                }
+                return array;
+            } else if (value instanceof Map<?, ?>) {
+                Object complex = type.newInstance();
+                configure(complex, (Map<String, Object>) value);
+                return complex;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " should be a number: " + value);
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Unable to create a value for " + name + ": " + e.getMessage());
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to create a value for " + name + ": " + e.getMessage());
+        }
+        throw new IllegalArgumentException("Parameter " + name + " can only be set from a config file");
+    }
+}
@@ -0,0 +1,250 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of compressed output, keyed by a hash of the inputs and
+ * the settings used to compress them. Entries are touched when read, so
+ * {@link #prune(int)} can drop the least recently used ones.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class CompressionCache {
+    static final String CHARSET = "UTF-8";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File directory;
+
+    /**
+     * Constructor.
+     *
+     * @param directory directory to store cache entries in
+     */
+    public CompressionCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Compute a cache key from a list of files and a set of parameters.
+     * The key covers the path and content of every file, in order.
+     *
+     * @param kind type of output being cached
+     * @param files input files
+     * @param params anything else the output depends on
+     * @return cache key
+     * @throws IOException on IO error
+     */
+    public static String key(String kind, Collection<File> files, String... params) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, kind);
+        for (String param : params) {
+            update(digest, param);
+        }
+        for (File file : files) {
+            update(digest, file.getAbsolutePath());
+            update(digest, hashFile(file));
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Compute a cache key from a string of input data and a set of parameters.
+     *
+     * @param kind type of output being cached
+     * @param data input data
+     * @param params anything else the output depends on
+     * @return cache key
+     */
+    public static String key(String kind, String data, String... params) {
+        MessageDigest digest = newDigest();
+        update(digest, kind);
+        for (String param : params) {
+            update(digest, param);
+        }
+        update(digest, data);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Look up a cache entry.
+     *
+     * @param key cache key
+     * @return the cached data, or null if there is no entry for the key
+     * @throws IOException on IO error
+     */
+    public String get(String key) throws IOException {
+        File entry = new File(directory, key);
+        if (!entry.isFile()) {
+            return null;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        return new String(readFile(entry), CHARSET);
+    }
+
+    /**
+     * Store a cache entry.
+     *
+     * @param key cache key
+     * @param data data to store
+     * @throws IOException on IO error
+     */
+    public void put(String key, String data) throws IOException {
+        directory.mkdirs();
+        File entry = new File(directory, key);
+        File tmp = File.createTempFile(key, TMP_SUFFIX, directory);
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data.getBytes(CHARSET));
+        } finally {
+            out.close();
+        }
+        try {
+            try {
+                Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            // Entries are content addressed, so one written by another build
+            // in the meantime is as good as ours
+            if (!entry.isFile()) {
+                throw new IOException("Unable to write cache entry " + entry.toString() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used entries until at most the given number
+     * remain. Failures are ignored; the entries are simply tried again on the
+     * next prune.
+     *
+     * @param maxEntries number of entries to keep
+     * @return number of entries deleted
+     */
+    public int prune(int maxEntries) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        List<File> entries = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isFile() && !file.getName().endsWith(TMP_SUFFIX)) {
+                entries.add(file);
+            }
+        }
+        if (entries.size() <= maxEntries) {
+            return 0;
+        }
+        final Map<File, Long> used = new HashMap<File, Long>();
+        for (File entry : entries) {
+            used.put(entry, entry.lastModified());
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return used.get(a).compareTo(used.get(b));
+            }
+        });
+        int deleted = 0;
+        for (File entry : entries.subList(0, entries.size() - Math.max(maxEntries, 0))) {
+            if (entry.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Hash the content of a file.
+     *
+     * @param file file to hash
+     * @return hex encoded SHA-1 hash
+     * @throws IOException on IO error
+     */
+    public static String hashFile(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param data data to hash
+     * @return hex encoded SHA-1 hash
+     */
+    static String hash(byte[] data) {
+        return toHex(newDigest().digest(data));
+    }
+
+    static byte[] readFile(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("File too large: " + file.toString());
+        }
+        byte[] data = new byte[(int) length];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = in.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes(CHARSET));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update((byte) 0);
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
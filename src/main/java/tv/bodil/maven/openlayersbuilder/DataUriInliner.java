@@ -0,0 +1,128 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replaces url(...) references to small images and fonts in CSS with data
+ * URIs, saving a request per asset. Relative URLs are resolved against the
+ * directory of the stylesheet they appear in; absolute and remote URLs,
+ * missing files, files of unknown type and files over the size limit are
+ * left alone.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class DataUriInliner {
+    private static final Pattern URL = Pattern.compile("url\\(\\s*(['\"]?)([^'\"()]+?)\\1\\s*\\)");
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final Map<String, String> TYPES = new HashMap<String, String>();
+
+    static {
+        TYPES.put("png", "image/png");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("cur", "image/x-icon");
+        TYPES.put("woff", "font/woff");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("ttf", "font/ttf");
+        TYPES.put("otf", "font/otf");
+        TYPES.put("eot", "application/vnd.ms-fontobject");
+    }
+
+    private final long maxSize;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize largest file, in bytes, to inline
+     */
+    public DataUriInliner(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Inline the small assets referenced from a stylesheet.
+     *
+     * @param css the stylesheet
+     * @param base directory relative URLs are resolved against
+     * @return the stylesheet with small assets inlined
+     * @throws IOException on IO error
+     */
+    public String inline(String css, File base) throws IOException {
+        Matcher matcher = URL.matcher(css);
+        StringBuffer out = null;
+        while (matcher.find()) {
+            File asset = resolve(matcher.group(2).trim(), base);
+            if (asset == null) {
+                continue;
+            }
+            if (out == null) {
+                out = new StringBuffer(css.length());
+            }
+            String uri = "data:" + getType(asset.getName()) + ";base64," + encode(CompressionCache.readFile(asset));
+            matcher.appendReplacement(out, Matcher.quoteReplacement("url(" + uri + ")"));
+        }
+        if (out == null) {
+            return css;
+        }
+        matcher.appendTail(out);
+        return out.toString();
+    }
+
+    /**
+     * Find the file a URL refers to, if it should be inlined.
+     *
+     * @param url the URL as written in the stylesheet
+     * @param base directory relative URLs are resolved against
+     * @return the file, or null if the URL should be left alone
+     */
+    File resolve(String url, File base) {
+        if (url.startsWith("/") || url.startsWith("#") || url.indexOf(':') >= 0) {
+            return null;
+        }
+        // Fonts are often referenced as eg. font.eot?#iefix
+        int end = url.length();
+        for (char c : new char[] { '?', '#' }) {
+            int index = url.indexOf(c);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        File asset = new File(base, url.substring(0, end));
+        if (getType(asset.getName()) == null || !asset.isFile() || asset.length() > maxSize) {
+            return null;
+        }
+        return asset;
+    }
+
+    static String getType(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? null : TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    static String encode(byte[] data) {
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xff) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xff;
+            }
+            out.append(BASE64[(b >> 18) & 0x3f]);
+            out.append(BASE64[(b >> 12) & 0x3f]);
+            out.append(i + 1 < data.length ? BASE64[(b >> 6) & 0x3f] : '=');
+            out.append(i + 2 < data.length ? BASE64[b & 0x3f] : '=');
+        }
+        return out.toString();
+    }
+}
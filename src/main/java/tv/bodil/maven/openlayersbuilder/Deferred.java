@@ -0,0 +1,67 @@
+package tv.bodil.maven.openlayersbuilder;
+
+/**
+ * A part of the Javascript loaded on first use rather than with the bundle.
+ * It holds its own files and their OpenLayers dependencies, less anything
+ * the bundle or an earlier deferred part already holds.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class Deferred {
+
+    /**
+     * Name of the part, used to load it and for its file name.
+     *
+     * @parameter
+     * @required
+     */
+    private String name;
+
+    /**
+     * List of fields in the manifest file to check for OpenLayers dependencies.
+     *
+     * @parameter
+     */
+    private String[] manifestDepsFields;
+
+    /**
+     * List of fields in the manifest file to take Javascript files from.
+     *
+     * @parameter
+     */
+    private String[] manifestJsFields;
+
+    /**
+     * OpenLayers files to defer along with their dependencies, relative to
+     * openLayersBase, eg. OpenLayers/Format/WFS.js.
+     *
+     * @parameter
+     */
+    private String[] openLayersFiles;
+
+    public Deferred() {
+    }
+
+    public Deferred(String name, String[] manifestDepsFields, String[] manifestJsFields, String[] openLayersFiles) {
+        this.name = name;
+        this.manifestDepsFields = manifestDepsFields;
+        this.manifestJsFields = manifestJsFields;
+        this.openLayersFiles = openLayersFiles;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getManifestDepsFields() {
+        return manifestDepsFields;
+    }
+
+    public String[] getManifestJsFields() {
+        return manifestJsFields;
+    }
+
+    public String[] getOpenLayersFiles() {
+        return openLayersFiles;
+    }
+}
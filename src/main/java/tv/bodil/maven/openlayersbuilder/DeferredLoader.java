@@ -0,0 +1,116 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the loader put at the start of a bundle with deferred parts.
+ * The loader defines OpenLayersBuilder.load(name, callback), which fetches
+ * a deferred part, after the parts it shares files with, and calls back
+ * once it has run. Each part is only fetched once.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class DeferredLoader {
+    static final String GLOBAL = "OpenLayersBuilder";
+
+    private DeferredLoader() {
+    }
+
+    /**
+     * Describe a deferred part for the loader.
+     *
+     * @param src URL of the part relative to the base URL, or null if the part
+     *            has no files of its own and only stands for the parts it requires
+     * @param requires names of the parts to load first
+     * @return the description
+     */
+    static Map<String, Object> part(String src, List<String> requires) {
+        Map<String, Object> part = new LinkedHashMap<String, Object>();
+        part.put("src", src);
+        part.put("requires", requires);
+        return part;
+    }
+
+    /**
+     * Generate the loader.
+     *
+     * @param baseUrl URL to load parts relative to, or null for the directory the bundle was loaded from
+     * @param parts description of each part, by name
+     * @return the loader script
+     */
+    static String script(String baseUrl, Map<String, Map<String, Object>> parts) {
+        StringBuilder script = new StringBuilder();
+        script.append("(function() {\n");
+        script.append("var base = ").append(Json.write(baseUrl)).append(", parts = ").append(Json.write(parts)).append(", state = {};\n");
+        script.append("if (base === null) {\n");
+        script.append("    var scripts = document.getElementsByTagName('script'), current = document.currentScript || scripts[scripts.length - 1];\n");
+        script.append("    base = current && current.src ? current.src.substring(0, current.src.lastIndexOf('/') + 1) : '';\n");
+        script.append("}\n");
+        script.append("for (var name in parts) {\n");
+        script.append("    if (parts.hasOwnProperty(name) && parts[name].src === null && parts[name].requires.length === 0) {\n");
+        script.append("        state[name] = true;\n");
+        script.append("    }\n");
+        script.append("}\n");
+        script.append("function load(name, callback) {\n");
+        script.append("    var part = parts[name], waiting = state[name], pending, i;\n");
+        script.append("    if (!part) {\n");
+        script.append("        throw new Error('No deferred part named ' + name);\n");
+        script.append("    }\n");
+        script.append("    if (waiting === true) {\n");
+        script.append("        if (callback) {\n");
+        script.append("            callback();\n");
+        script.append("        }\n");
+        script.append("        return;\n");
+        script.append("    }\n");
+        script.append("    if (waiting) {\n");
+        script.append("        if (callback) {\n");
+        script.append("            waiting.push(callback);\n");
+        script.append("        }\n");
+        script.append("        return;\n");
+        script.append("    }\n");
+        script.append("    waiting = state[name] = callback ? [callback] : [];\n");
+        script.append("    pending = part.requires.length + 1;\n");
+        script.append("    function done() {\n");
+        script.append("        state[name] = true;\n");
+        script.append("        for (var j = 0; j < waiting.length; j++) {\n");
+        script.append("            waiting[j]();\n");
+        script.append("        }\n");
+        script.append("    }\n");
+        script.append("    function start() {\n");
+        script.append("        if (--pending > 0) {\n");
+        script.append("            return;\n");
+        script.append("        }\n");
+        script.append("        if (part.src === null) {\n");
+        script.append("            // Nothing of its own, only the parts it requires\n");
+        script.append("            done();\n");
+        script.append("            return;\n");
+        script.append("        }\n");
+        script.append("        var script = document.createElement('script');\n");
+        script.append("        script.src = base + part.src;\n");
+        script.append("        script.async = true;\n");
+        script.append("        script.onload = script.onreadystatechange = function() {\n");
+        script.append("            if (script.readyState && script.readyState !== 'loaded' && script.readyState !== 'complete') {\n");
+        script.append("                return;\n");
+        script.append("            }\n");
+        script.append("            script.onload = script.onreadystatechange = null;\n");
+        script.append("            done();\n");
+        script.append("        };\n");
+        script.append("        script.onerror = function() {\n");
+        script.append("            // Let a later call try again\n");
+        script.append("            delete state[name];\n");
+        script.append("        };\n");
+        script.append("        document.getElementsByTagName('head')[0].appendChild(script);\n");
+        script.append("    }\n");
+        script.append("    for (i = 0; i < part.requires.length; i++) {\n");
+        script.append("        load(part.requires[i], start);\n");
+        script.append("    }\n");
+        script.append("    start();\n");
+        script.append("}\n");
+        script.append("window.").append(GLOBAL).append(" = window.").append(GLOBAL).append(" || {};\n");
+        script.append("window.").append(GLOBAL).append(".load = load;\n");
+        script.append("})();\n");
+        return script.toString();
+    }
+}
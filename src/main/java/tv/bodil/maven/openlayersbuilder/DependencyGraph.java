@@ -0,0 +1,228 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Graph of @requires dependencies between files in a dependency tree.
+ *
+ * Each file is parsed at most once; its edges are kept for the lifetime
+ * of the graph.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class DependencyGraph {
+    private final File root;
+    private final RequiresScanner scanner;
+    private final ExecutorService executor;
+    private final Map<File, Collection<File>> edges = new HashMap<File, Collection<File>>();
+
+    /**
+     * Constructor.
+     *
+     * @param root root of file tree for dependencies
+     */
+    public DependencyGraph(File root) {
+        this(root, new RequiresScanner(false), null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param root root of file tree for dependencies
+     * @param scanner scanner used to find the dependencies of each file
+     * @param executor executor to scan files on concurrently, or null to scan sequentially
+     */
+    public DependencyGraph(File root, RequiresScanner scanner, ExecutorService executor) {
+        this.root = root;
+        this.scanner = scanner;
+        this.executor = executor;
+    }
+
+    /**
+     * @return root of file tree for dependencies
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the direct dependencies of a file, parsing it if it hasn't been seen before.
+     *
+     * @param file file to get dependencies for
+     * @return the files required by the file, in declaration order
+     * @throws IOException on IO error
+     */
+    public Collection<File> getDependencies(File file) throws IOException {
+        Collection<File> deps = edges.get(file);
+        if (deps == null) {
+            deps = Manifest.resolveFileNames(scanner.scan(file), root);
+            edges.put(file, deps);
+        }
+        return deps;
+    }
+
+    /**
+     * Add dependencies found earlier, eg. from a {@link DependencyIndex},
+     * for files that haven't been parsed yet.
+     *
+     * @param known known dependencies of each file
+     */
+    public void preload(Map<File, ? extends Collection<File>> known) {
+        for (Map.Entry<File, ? extends Collection<File>> entry : known.entrySet()) {
+            if (!edges.containsKey(entry.getKey())) {
+                edges.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the dependencies of every file parsed or preloaded so far
+     */
+    public Map<File, Collection<File>> getEdges() {
+        return new HashMap<File, Collection<File>>(edges);
+    }
+
+    /**
+     * Forget the parsed dependencies of a set of files, so that they are parsed again when next needed.
+     *
+     * @param files files that have changed
+     */
+    public void forget(Collection<File> files) {
+        for (File file : files) {
+            edges.remove(file);
+        }
+    }
+
+    /**
+     * Find every file transitively required by a set of files.
+     *
+     * @param files files to start from
+     * @param includeStart include the starting files themselves in the result
+     * @return reachable files, in the order they were discovered
+     * @throws IOException on IO error
+     */
+    public Collection<File> resolve(Collection<File> files, boolean includeStart) throws IOException {
+        LinkedHashSet<File> seen = new LinkedHashSet<File>();
+        List<File> level = new ArrayList<File>();
+        if (includeStart) {
+            for (File file : files) {
+                if (seen.add(file)) {
+                    level.add(file);
+                }
+            }
+        } else {
+            level.addAll(files);
+        }
+        // Breadth first, one level at a time, so that each level can be scanned concurrently
+        while (!level.isEmpty()) {
+            parseAll(level);
+            List<File> next = new ArrayList<File>();
+            for (File file : level) {
+                for (File dep : getDependencies(file)) {
+                    if (seen.add(dep)) {
+                        next.add(dep);
+                    }
+                }
+            }
+            level = next;
+        }
+        return seen;
+    }
+
+    /**
+     * Make sure the dependencies of every file in a list have been parsed.
+     *
+     * @param files files to parse
+     * @throws IOException on IO error
+     */
+    private void parseAll(List<File> files) throws IOException {
+        List<File> unparsed = new ArrayList<File>();
+        for (File file : new LinkedHashSet<File>(files)) {
+            if (!edges.containsKey(file)) {
+                unparsed.add(file);
+            }
+        }
+        List<Collection<String>> deps = scanner.scanAll(unparsed, executor);
+        for (int i = 0; i < unparsed.size(); i++) {
+            edges.put(unparsed.get(i), Manifest.resolveFileNames(deps.get(i), root));
+        }
+    }
+
+    /**
+     * Sort a set of files so that every file comes after the files it requires.
+     * Files are visited in the given order and their dependencies in
+     * declaration order, so the result is deterministic.
+     *
+     * @param files files to sort, which must be closed under their dependencies
+     * @return sorted list of files
+     * @throws IOException on IO error
+     * @throws MojoFailureException if the files contain a dependency cycle
+     */
+    public List<File> sort(Collection<File> files) throws IOException, MojoFailureException {
+        List<File> sorted = new ArrayList<File>(files.size());
+        Set<File> done = new HashSet<File>();
+        // Files on the current DFS path, used to report cycles
+        Set<File> onPath = new HashSet<File>();
+        LinkedList<File> path = new LinkedList<File>();
+        LinkedList<Iterator<File>> stack = new LinkedList<Iterator<File>>();
+        for (File start : files) {
+            if (done.contains(start)) {
+                continue;
+            }
+            onPath.add(start);
+            path.addLast(start);
+            stack.addLast(getDependencies(start).iterator());
+            while (!stack.isEmpty()) {
+                Iterator<File> it = stack.getLast();
+                if (it.hasNext()) {
+                    File dep = it.next();
+                    if (done.contains(dep)) {
+                        continue;
+                    }
+                    if (onPath.contains(dep)) {
+                        throw new MojoFailureException(describeCycle(path, dep));
+                    }
+                    onPath.add(dep);
+                    path.addLast(dep);
+                    stack.addLast(getDependencies(dep).iterator());
+                } else {
+                    stack.removeLast();
+                    File file = path.removeLast();
+                    onPath.remove(file);
+                    done.add(file);
+                    sorted.add(file);
+                }
+            }
+        }
+        return sorted;
+    }
+
+    private String describeCycle(Collection<File> path, File repeated) {
+        StringBuilder message = new StringBuilder("Dependency cycle detected: ");
+        boolean inCycle = false;
+        for (File file : path) {
+            if (file.equals(repeated)) {
+                inCycle = true;
+            }
+            if (inCycle) {
+                message.append(file.toString()).append(" -> ");
+            }
+        }
+        message.append(repeated.toString());
+        return message.toString();
+    }
+}
@@ -0,0 +1,258 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binary index of the @requires edges of the files in a dependency tree,
+ * kept between builds so an unchanged tree doesn't need scanning again.
+ *
+ * Each entry is validated against the file's size and modification time.
+ * If those have changed but the size hasn't, the content hash recorded in
+ * the index is checked before giving up on the entry, so a fresh checkout
+ * of the same tree still uses the index.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class DependencyIndex {
+    private static final int MAGIC = 0x4f4c4458;
+    private static final int VERSION = 1;
+
+    private final File indexFile;
+    private final File root;
+    private final String scannerId;
+    private final String prefix;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private int rehashed = 0;
+    private int stale = 0;
+
+    private static class Entry {
+        long size;
+        long modified;
+        String hash;
+        List<String> edges;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param indexFile file to keep the index in
+     * @param root root of the dependency tree
+     * @param scannerId identifies the scanner settings the edges were found with
+     */
+    public DependencyIndex(File indexFile, File root, String scannerId) {
+        this.indexFile = indexFile;
+        this.root = root;
+        this.scannerId = scannerId;
+        this.prefix = root.getPath() + File.separator;
+    }
+
+    /**
+     * Read the index, keeping the entries for files that haven't changed.
+     * A missing, unreadable or mismatched index reads as empty.
+     *
+     * @return the edges of every unchanged file
+     * @throws IOException on IO error hashing a file
+     */
+    public Map<File, Collection<File>> load() throws IOException {
+        entries.clear();
+        rehashed = 0;
+        stale = 0;
+        Map<String, Entry> read = read();
+        Map<File, Collection<File>> edges = new LinkedHashMap<File, Collection<File>>();
+        for (Map.Entry<String, Entry> indexed : read.entrySet()) {
+            File file = new File(root, indexed.getKey());
+            Entry entry = indexed.getValue();
+            long size = file.length();
+            long modified = file.lastModified();
+            if (modified == 0 || size != entry.size) {
+                stale++;
+                continue;
+            }
+            if (modified != entry.modified) {
+                if (!CompressionCache.hashFile(file).equals(entry.hash)) {
+                    stale++;
+                    continue;
+                }
+                entry.modified = modified;
+                rehashed++;
+            }
+            entries.put(indexed.getKey(), entry);
+            List<File> deps = new ArrayList<File>(entry.edges.size());
+            for (String edge : entry.edges) {
+                deps.add(new File(root, edge));
+            }
+            edges.put(file, deps);
+        }
+        return edges;
+    }
+
+    private Map<String, Entry> read() {
+        Map<String, Entry> read = new LinkedHashMap<String, Entry>();
+        if (!indexFile.isFile()) {
+            return read;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION
+                        || !in.readUTF().equals(root.getPath()) || !in.readUTF().equals(scannerId)) {
+                    return read;
+                }
+                int count = in.readInt();
+                String[] names = new String[count];
+                int[][] edgeIndices = new int[count][];
+                Entry[] table = new Entry[count];
+                for (int i = 0; i < count; i++) {
+                    names[i] = in.readUTF();
+                    table[i] = new Entry();
+                    table[i].size = in.readLong();
+                    table[i].modified = in.readLong();
+                    table[i].hash = in.readUTF();
+                    int edgeCount = in.readInt();
+                    table[i].edges = new ArrayList<String>(edgeCount);
+                    edgeIndices[i] = new int[edgeCount];
+                    for (int j = 0; j < edgeCount; j++) {
+                        int index = in.readInt();
+                        edgeIndices[i][j] = index;
+                        // Edges to files outside the index are stored by name
+                        table[i].edges.add(index < 0 ? in.readUTF() : null);
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    for (int j = 0; j < edgeIndices[i].length; j++) {
+                        int index = edgeIndices[i][j];
+                        if (index >= count) {
+                            throw new IOException("Corrupt index");
+                        }
+                        if (index >= 0) {
+                            table[i].edges.set(j, names[index]);
+                        }
+                    }
+                    read.put(names[i], table[i]);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            read.clear();
+        }
+        return read;
+    }
+
+    /**
+     * Write the index, covering every file in the given edges that lies
+     * inside the tree. Files modified after the given time are left out,
+     * since their edges may have been found from older content.
+     *
+     * @param edges edges to store
+     * @param notAfter only store files last modified before this time, in milliseconds
+     * @return true if the index file was changed
+     * @throws IOException on IO error
+     */
+    public boolean save(Map<File, ? extends Collection<File>> edges, long notAfter) throws IOException {
+        Map<String, Entry> table = new TreeMap<String, Entry>();
+        for (Map.Entry<File, ? extends Collection<File>> edge : edges.entrySet()) {
+            String name = relative(edge.getKey());
+            if (name == null) {
+                continue;
+            }
+            File file = edge.getKey();
+            long modified = file.lastModified();
+            if (modified == 0 || modified >= notAfter) {
+                continue;
+            }
+            Entry entry = new Entry();
+            entry.size = file.length();
+            entry.modified = modified;
+            Entry known = entries.get(name);
+            entry.hash = known != null && known.size == entry.size && known.modified == modified
+                ? known.hash : CompressionCache.hashFile(file);
+            entry.edges = new ArrayList<String>(edge.getValue().size());
+            boolean complete = true;
+            for (File dep : edge.getValue()) {
+                String depName = relative(dep);
+                if (depName == null) {
+                    complete = false;
+                    break;
+                }
+                entry.edges.add(depName);
+            }
+            if (complete) {
+                table.put(name, entry);
+            }
+        }
+
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        for (String name : table.keySet()) {
+            indices.put(name, Integer.valueOf(indices.size()));
+        }
+        AtomicOutputFile output = new AtomicOutputFile(indexFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output.getStream()));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root.getPath());
+            out.writeUTF(scannerId);
+            out.writeInt(table.size());
+            for (Map.Entry<String, Entry> indexed : table.entrySet()) {
+                Entry entry = indexed.getValue();
+                out.writeUTF(indexed.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeUTF(entry.hash);
+                out.writeInt(entry.edges.size());
+                for (String dep : entry.edges) {
+                    Integer index = indices.get(dep);
+                    if (index != null) {
+                        out.writeInt(index.intValue());
+                    } else {
+                        out.writeInt(-1);
+                        out.writeUTF(dep);
+                    }
+                }
+            }
+            out.flush();
+            boolean changed = output.commit();
+            output = null;
+            entries.clear();
+            entries.putAll(table);
+            return changed;
+        } finally {
+            if (output != null) {
+                output.abort();
+            }
+        }
+    }
+
+    private String relative(File file) {
+        String path = file.getPath();
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : null;
+    }
+
+    /**
+     * @return number of entries found stale by the last load
+     */
+    public int getStale() {
+        return stale;
+    }
+
+    /**
+     * @return number of entries the last load had to check by content hash
+     */
+    public int getRehashed() {
+        return rehashed;
+    }
+}
@@ -0,0 +1,350 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serve mojo. Runs a local HTTP server for development, serving the
+ * bundles from memory instead of writing them to disk. Each source file is
+ * also served on its own under /src/, and /loader.js loads them in
+ * dependency order in place of the Javascript bundle, for debugging.
+ *
+ * Responses carry a strong ETag, so an unchanged file comes back as 304
+ * Not Modified. Sources are checked for changes when a bundle or the
+ * loader is requested, and a bundle is only rebuilt on the first request
+ * for it after one of its inputs changed. Entrypoints aren't served; only
+ * the main Javascript and CSS bundles are. Variants and deferred parts
+ * aren't supported.
+ *
+ * Images and fonts referenced by url() in the CSS aren't served. Inline
+ * them with inlineAssets, or serve them some other way at the URLs the
+ * CSS bundle resolves them to.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ *
+ * @goal serve
+ */
+public class DevServer extends Packager {
+    static final String LOADER = "/loader.js";
+    static final String SOURCES = "/src/";
+
+    /**
+     * Port to listen on.
+     *
+     * @parameter expression=8080
+     */
+    private int port;
+
+    /**
+     * Address to listen on. Defaults to the loopback interface only.
+     *
+     * @parameter expression="127.0.0.1"
+     */
+    private String bindAddress;
+
+    private final FileStamps stamps = new FileStamps();
+    private final Map<String, File> sources = new HashMap<String, File>();
+    private final Map<String, Resource> resources = new HashMap<String, Resource>();
+    private Manifest m;
+    private JSFiles js;
+    private Collection<File> deps;
+    private Collection<File> css;
+    private boolean jsStale = true;
+    private boolean cssStale = true;
+
+    /**
+     * Content served, with its ETag.
+     */
+    private static class Resource {
+        final byte[] data;
+        final String etag;
+        final long stamp;
+
+        Resource(byte[] data, long stamp) {
+            this.data = data;
+            this.etag = "\"" + CompressionCache.hash(data) + "\"";
+            this.stamp = stamp;
+        }
+    }
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        checkSingleBundle("serve");
+        setUp();
+        keepInMemory();
+        keepOutputsInMemory();
+        HttpServer server = null;
+        ExecutorService requests = Executors.newCachedThreadPool();
+        try {
+            m = createManifest();
+            refresh();
+            try {
+                server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to listen on " + bindAddress + ":" + port + ": " + e.getMessage());
+            }
+            server.createContext("/", new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    try {
+                        serve(exchange);
+                    } finally {
+                        exchange.close();
+                    }
+                }
+            });
+            server.setExecutor(requests);
+            server.start();
+            String base = "http://" + bindAddress + ":" + port;
+            getLog().info("Serving " + base + "/" + getJsTarget().getName() + ", " + base + "/" + getCssTarget().getName()
+                + " and " + base + LOADER + ", press Ctrl-C to stop.");
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+            requests.shutdownNow();
+            tearDown();
+        }
+    }
+
+    /**
+     * Check the sources for changes, and mark the bundles they're part of for rebuilding.
+     */
+    private synchronized void refresh() throws MojoExecutionException, MojoFailureException {
+        Collection<File> manifestFile = Collections.singleton(getManifestFile());
+        List<File> jsChanged = js != null ? stamps.changed(jsInputs(js, deps)) : Collections.<File>emptyList();
+        List<File> cssChanged = css != null ? stamps.changed(css) : Collections.<File>emptyList();
+        // Record the state we're about to build from, so edits made during the build are picked up next time
+        stamps.record(jsChanged, false);
+        stamps.record(cssChanged, false);
+        forget(m, jsChanged);
+        if (js == null || !stamps.changed(manifestFile).isEmpty()) {
+            stamps.record(manifestFile, false);
+            if (js != null) {
+                getLog().info("Manifest changed, reloading");
+                m.reload();
+            }
+            js = resolveJSFiles(m);
+            deps = resolveDepsFiles(m);
+            css = resolveCSSFiles(m);
+            jsStale = true;
+            cssStale = true;
+        } else {
+            if (!jsChanged.isEmpty()) {
+                getLog().info("Changed: " + jsChanged);
+                js = resolveJSFiles(m);
+                jsStale = true;
+            }
+            if (!cssChanged.isEmpty()) {
+                getLog().info("Changed: " + cssChanged);
+                cssStale = true;
+            }
+        }
+        stamps.record(jsInputs(js, deps), true);
+        stamps.record(css, true);
+        if (jsStale) {
+            updateSources();
+        }
+    }
+
+    private void updateSources() {
+        File openLayersBase = getOpenLayersBase();
+        File root = getManifestRoot();
+        List<String> paths = new ArrayList<String>();
+        sources.clear();
+        for (File file : js.all()) {
+            String path;
+            if (openLayersBase != null && isInside(openLayersBase, file)) {
+                path = SOURCES + "openlayers/" + relativePath(openLayersBase, file);
+            } else if (isInside(root, file)) {
+                path = SOURCES + "app/" + relativePath(root, file);
+            } else {
+                path = SOURCES + "other/" + sources.size() + "/" + file.getName();
+            }
+            sources.put(path, file);
+            paths.add(path);
+        }
+        resources.put(LOADER, new Resource(loaderScript(paths).getBytes(getCharset()), 0));
+    }
+
+    private static boolean isInside(File directory, File file) {
+        return file.getAbsolutePath().startsWith(directory.getAbsolutePath() + File.separator);
+    }
+
+    /**
+     * Generate a script loading a list of scripts in order.
+     *
+     * @param paths script URLs
+     * @return the loader script
+     */
+    static String loaderScript(List<String> paths) {
+        StringBuilder script = new StringBuilder("(function() {\n    var scripts = [\n");
+        for (int i = 0; i < paths.size(); i++) {
+            script.append("        ").append(Json.write(paths.get(i))).append(i < paths.size() - 1 ? ",\n" : "\n");
+        }
+        script.append("    ];\n");
+        script.append("    for (var i = 0; i < scripts.length; i++) {\n");
+        script.append("        document.write('<script type=\"text/javascript\" src=\"' + scripts[i] + '\"></script>');\n");
+        script.append("    }\n");
+        script.append("})();\n");
+        return script.toString();
+    }
+
+    /**
+     * @return the current bundle or loader at a path, rebuilding it first if its inputs have changed
+     */
+    private synchronized Resource getBuilt(String path) throws MojoExecutionException, MojoFailureException {
+        File target;
+        if (path.equals("/" + getJsTarget().getName())) {
+            target = getJsTarget();
+        } else if (path.equals("/" + getCssTarget().getName())) {
+            target = getCssTarget();
+        } else if (path.equals(LOADER)) {
+            refresh();
+            return resources.get(LOADER);
+        } else {
+            return null;
+        }
+        refresh();
+        if (target == getJsTarget() && jsStale) {
+            long start = System.currentTimeMillis();
+            buildJS(js);
+            jsStale = false;
+            getLog().info("Built " + path + " in " + (System.currentTimeMillis() - start) + " ms");
+            resources.put(path, new Resource(getOutput(target), 0));
+        } else if (target == getCssTarget() && cssStale) {
+            long start = System.currentTimeMillis();
+            buildCSS(css);
+            cssStale = false;
+            getLog().info("Built " + path + " in " + (System.currentTimeMillis() - start) + " ms");
+            resources.put(path, new Resource(getOutput(target), 0));
+        }
+        return resources.get(path);
+    }
+
+    /**
+     * @return a source file, read again if it has changed since it was last served
+     */
+    private Resource getSource(String path) throws IOException {
+        File file;
+        Resource cached;
+        synchronized (this) {
+            file = sources.get(path);
+            cached = resources.get(path);
+        }
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        long stamp = FileStamps.stamp(file);
+        if (cached != null && cached.stamp == stamp) {
+            return cached;
+        }
+        Resource resource = new Resource(CompressionCache.readFile(file), stamp);
+        synchronized (this) {
+            resources.put(path, resource);
+        }
+        return resource;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            send(exchange, 405, "Method not allowed");
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        Resource resource;
+        try {
+            resource = path.startsWith(SOURCES) ? getSource(path) : getBuilt(path);
+        } catch (MojoFailureException e) {
+            getLog().error(e.getMessage());
+            send(exchange, 500, e.getMessage());
+            return;
+        } catch (MojoExecutionException e) {
+            getLog().error(e.getMessage());
+            send(exchange, 500, e.getMessage());
+            return;
+        }
+        if (resource == null) {
+            send(exchange, 404, "Not found: " + path);
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", resource.etag);
+        // Revalidate on every load, which costs a 304 when nothing has changed
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), resource.etag)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType(path));
+        if (method.equals("HEAD")) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(resource.data.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, resource.data.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(resource.data);
+        out.flush();
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] data = (message + "\n").getBytes(CompressionCache.CHARSET);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=" + CompressionCache.CHARSET);
+        exchange.sendResponseHeaders(status, data.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(data);
+        out.flush();
+    }
+
+    private String contentType(String path) {
+        if (path.endsWith(".js")) {
+            return "application/javascript; charset=" + getCharset().name();
+        } else if (path.endsWith(".css")) {
+            return "text/css; charset=" + getCharset().name();
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * Check an If-None-Match header against an ETag.
+     *
+     * @param header the header value, or null
+     * @param etag the current ETag
+     * @return true if the client's copy is current
+     */
+    static boolean matches(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,53 @@
+package tv.bodil.maven.openlayersbuilder;
+
+/**
+ * A named Javascript bundle built from its own set of manifest fields.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class Entrypoint {
+
+    /**
+     * Name of the entrypoint, used for its bundle file name.
+     *
+     * @parameter
+     * @required
+     */
+    private String name;
+
+    /**
+     * List of fields in the manifest file to check for OpenLayers dependencies.
+     *
+     * @parameter
+     */
+    private String[] manifestDepsFields;
+
+    /**
+     * List of fields in the manifest file to build the Javascript file list from.
+     *
+     * @parameter
+     * @required
+     */
+    private String[] manifestJsFields;
+
+    public Entrypoint() {
+    }
+
+    public Entrypoint(String name, String[] manifestDepsFields, String[] manifestJsFields) {
+        this.name = name;
+        this.manifestDepsFields = manifestDepsFields;
+        this.manifestJsFields = manifestJsFields;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getManifestDepsFields() {
+        return manifestDepsFields;
+    }
+
+    public String[] getManifestJsFields() {
+        return manifestJsFields;
+    }
+}
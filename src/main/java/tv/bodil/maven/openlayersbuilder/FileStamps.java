@@ -0,0 +1,51 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the state of a set of files, to tell which have changed since.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+class FileStamps {
+    private final Map<File, Long> snapshot = new HashMap<File, Long>();
+
+    static long stamp(File file) {
+        // Modification time alone misses edits within the file system's timestamp resolution
+        return file.lastModified() * 31 + file.length();
+    }
+
+    /**
+     * Record the current state of a set of files.
+     *
+     * @param files files to record
+     * @param onlyNew only record files that haven't been recorded before
+     */
+    void record(Collection<File> files, boolean onlyNew) {
+        for (File file : files) {
+            if (!onlyNew || !snapshot.containsKey(file)) {
+                snapshot.put(file, Long.valueOf(stamp(file)));
+            }
+        }
+    }
+
+    /**
+     * @param files files to check
+     * @return the files that have changed, or were never recorded
+     */
+    List<File> changed(Collection<File> files) {
+        List<File> changed = new ArrayList<File>();
+        for (File file : files) {
+            Long previous = snapshot.get(file);
+            if (previous == null || previous.longValue() != stamp(file)) {
+                changed.add(file);
+            }
+        }
+        return changed;
+    }
+}
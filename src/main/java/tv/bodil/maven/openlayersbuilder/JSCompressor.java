@@ -1,13 +1,20 @@
 package tv.bodil.maven.openlayersbuilder;
 
 import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.logging.Level;
 
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
 
+import com.google.javascript.jscomp.BasicErrorManager;
 import com.google.javascript.jscomp.CheckLevel;
 import com.google.javascript.jscomp.Compiler;
 import com.google.javascript.jscomp.CompilerOptions;
@@ -18,24 +25,84 @@ import com.google.javascript.jscomp.Result;
 import com.google.javascript.jscomp.VariableRenamingPolicy;
 
 /**
- * Class that compresses Javascript.
+ * Minifier using the Closure Compiler. Compiler messages go to the log given
+ * to the constructor rather than Closure's global logger, so several
+ * compressors can run side by side with different settings.
  *
  * @author Bodil Stokke (bodil@bodil.tv)
  */
-public class JSCompressor {
+public class JSCompressor implements Minifier {
 
     private final Compiler compiler;
     private final boolean proper;
+    private final Charset charset;
 
     /**
-     * Constructor.
+     * Constructor. Source files are read using the platform default encoding.
      *
      * @param proper enable proper mode if true
      */
     public JSCompressor(boolean proper) {
+        this(proper, Charset.defaultCharset());
+    }
+
+    /**
+     * Constructor. Compiler messages are written to standard output.
+     *
+     * @param proper enable proper mode if true
+     * @param charset encoding of the source files
+     */
+    public JSCompressor(boolean proper, Charset charset) {
+        this(proper, charset, new SystemStreamLog());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param proper enable proper mode if true
+     * @param charset encoding of the source files
+     * @param log log to write compiler messages to; warnings are only logged in proper mode
+     */
+    public JSCompressor(boolean proper, Charset charset, Log log) {
         this.proper = proper;
-        compiler = new Compiler();
-        Compiler.setLoggingLevel(proper ? Level.WARNING : Level.SEVERE);
+        this.charset = charset;
+        compiler = new Compiler(new LogErrorManager(log, proper));
+    }
+
+    /**
+     * Error manager writing compiler messages to a Maven log.
+     */
+    private static class LogErrorManager extends BasicErrorManager {
+        private final Log log;
+        private final boolean warnings;
+
+        LogErrorManager(Log log, boolean warnings) {
+            this.log = log;
+            this.warnings = warnings;
+        }
+
+        @Override
+        public void println(CheckLevel level, JSError error) {
+            if (level == CheckLevel.ERROR) {
+                log.error(error.toString());
+            } else if (level == CheckLevel.WARNING && warnings) {
+                log.warn(error.toString());
+            }
+        }
+
+        @Override
+        protected void printSummary() {
+            if (getErrorCount() > 0 || (warnings && getWarningCount() > 0)) {
+                log.info(getErrorCount() + " error(s), " + getWarningCount() + " warning(s)");
+            }
+        }
+    }
+
+    /**
+     * @return true if proper mode is enabled
+     */
+    public boolean isProper() {
+        return proper;
     }
 
     /**
@@ -49,7 +116,7 @@ public class JSCompressor {
     public String compress(Collection<File> files, boolean failOnWarn) throws MojoFailureException {
         List<JSSourceFile> jsFiles = new LinkedList<JSSourceFile>();
         for (File file : files) {
-            jsFiles.add(JSSourceFile.fromFile(file));
+            jsFiles.add(JSSourceFile.fromFile(file, charset));
         }
         CompilerOptions options = getOptions(proper);
         Result result = compiler.compile(new JSSourceFile[0], jsFiles.toArray(new JSSourceFile[0]), options);
@@ -95,5 +162,38 @@ public class JSCompressor {
         }
         return options;
     }
-}
 
+    /**
+     * Describe the compiler options in use as a string, for use in cache keys.
+     * Only fields with simple values (primitives, strings and enums) are
+     * included.
+     *
+     * @return a string identifying the compiler options
+     */
+    public String getOptionsFingerprint() {
+        CompilerOptions options = getOptions(proper);
+        Field[] fields = CompilerOptions.class.getDeclaredFields();
+        Arrays.sort(fields, new Comparator<Field>() {
+            public int compare(Field a, Field b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        StringBuilder fingerprint = new StringBuilder();
+        for (Field field : fields) {
+            Class<?> type = field.getType();
+            if (Modifier.isStatic(field.getModifiers())
+                    || !(type.isPrimitive() || type.isEnum() || type == String.class)) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                fingerprint.append(field.getName()).append('=').append(field.get(options)).append(';');
+            } catch (IllegalAccessException e) {
+                // Not readable; leave it out of the fingerprint
+            } catch (SecurityException e) {
+                // Not readable; leave it out of the fingerprint
+            }
+        }
+        return fingerprint.toString();
+    }
+}
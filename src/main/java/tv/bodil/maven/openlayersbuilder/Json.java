@@ -0,0 +1,289 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON parser and writer. Objects become LinkedHashMaps, arrays
+ * become Lists, numbers become Doubles.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class Json {
+    private final String text;
+    private int pos = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parse a JSON document.
+     *
+     * @param text JSON text
+     * @return the parsed value
+     * @throws IllegalArgumentException if the text isn't valid JSON
+     */
+    public static Object parse(String text) {
+        Json parser = new Json(text);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) {
+            throw parser.error("Unexpected trailing data");
+        }
+        return value;
+    }
+
+    /**
+     * Serialise a value as JSON. Maps, collections, strings, numbers,
+     * booleans and null are supported; anything else is written as a string.
+     *
+     * @param value value to serialise
+     * @return JSON text
+     */
+    public static String write(Object value) {
+        StringBuilder out = new StringBuilder();
+        write(out, value, "");
+        return out.toString();
+    }
+
+    /**
+     * Write a value to a file as JSON, in UTF-8, creating the directory
+     * the file is in if needed. The file is replaced atomically.
+     *
+     * @param file file to write
+     * @param value value to serialise
+     * @throws IOException on IO error
+     */
+    public static void write(File file, Object value) throws IOException {
+        AtomicOutputFile output = new AtomicOutputFile(file);
+        try {
+            output.getStream().write((write(value) + "\n").getBytes("UTF-8"));
+            output.commit();
+            output = null;
+        } finally {
+            if (output != null) {
+                output.abort();
+            }
+        }
+    }
+
+    private static void write(StringBuilder out, Object value, String indent) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Map<?, ?>) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (map.isEmpty()) {
+                out.append("{}");
+                return;
+            }
+            String inner = indent + "  ";
+            out.append("{\n");
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!first) {
+                    out.append(",\n");
+                }
+                first = false;
+                out.append(inner);
+                quote(out, String.valueOf(entry.getKey()));
+                out.append(": ");
+                write(out, entry.getValue(), inner);
+            }
+            out.append('\n').append(indent).append('}');
+        } else if (value instanceof Collection<?>) {
+            Collection<?> list = (Collection<?>) value;
+            if (list.isEmpty()) {
+                out.append("[]");
+                return;
+            }
+            String inner = indent + "  ";
+            out.append("[\n");
+            boolean first = true;
+            for (Object item : list) {
+                if (!first) {
+                    out.append(",\n");
+                }
+                first = false;
+                out.append(inner);
+                write(out, item, inner);
+            }
+            out.append('\n').append(indent).append(']');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.append(value.toString());
+        } else {
+            quote(out, value.toString());
+        }
+    }
+
+    private static void quote(StringBuilder out, String s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+                if (c < 0x20) {
+                    out.append(String.format("\\u%04x", Integer.valueOf(c)));
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + pos);
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() {
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        return text.charAt(pos);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private Object readValue() {
+        char c = peek();
+        switch (c) {
+        case '{':
+            return readObject();
+        case '[':
+            return readArray();
+        case '"':
+            return readString();
+        default:
+            if (text.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            } else if (text.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            } else if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                return readNumber();
+            }
+            throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return object;
+        }
+        while (true) {
+            if (peek() != '"') {
+                throw error("Expected string key");
+            }
+            String key = readString();
+            expect(':');
+            object.put(key, readValue());
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<Object>();
+        expect('[');
+        if (peek() == ']') {
+            pos++;
+            return array;
+        }
+        while (true) {
+            array.add(readValue());
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String readString() {
+        expect('"');
+        StringBuilder out = new StringBuilder();
+        while (true) {
+            if (pos >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return out.toString();
+            } else if (c == '\\') {
+                if (pos >= text.length()) {
+                    throw error("Unterminated string");
+                }
+                char e = text.charAt(pos++);
+                switch (e) {
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw error("Invalid unicode escape");
+                    }
+                    try {
+                        out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    out.append(e);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private Double readNumber() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number");
+        }
+    }
+}
@@ -1,29 +1,23 @@
 package tv.bodil.maven.openlayersbuilder;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import jdsl.graph.algo.TopologicalSort;
-import jdsl.graph.api.Vertex;
-import jdsl.graph.api.VertexIterator;
-import jdsl.graph.ref.IncidenceListGraph;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.Scriptable;
 
 /**
@@ -34,6 +28,12 @@ import org.mozilla.javascript.Scriptable;
 public class Manifest {
     private File manifest;
     private File manifestRoot;
+    private DependencyGraph graph;
+    private Map<String, Object> fields;
+    private Scriptable scope;
+    private RequiresScanner scanner = DEFAULT_SCANNER;
+    private ExecutorService executor;
+    private Charset charset = Charset.forName(CompressionCache.CHARSET);
 
     /**
      * Constructor.
@@ -46,6 +46,45 @@ public class Manifest {
         this.manifestRoot = manifestRoot;
     }
 
+    /**
+     * Set the scanner used to find dependencies when building dependency trees.
+     *
+     * @param scanner @requires scanner
+     */
+    public void setRequiresScanner(RequiresScanner scanner) {
+        this.scanner = scanner;
+        graph = null;
+    }
+
+    /**
+     * Set an executor to scan files for dependencies concurrently.
+     *
+     * @param executor executor, or null to scan sequentially
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        graph = null;
+    }
+
+    /**
+     * Set the encoding the manifest file is read with. Defaults to UTF-8.
+     *
+     * @param charset manifest encoding
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+        reload();
+    }
+
+    /**
+     * Discard the evaluated manifest, so that it is read again on the next
+     * call to {@link #buildFileList(String[])}. Parsed dependencies are kept.
+     */
+    public void reload() {
+        fields = null;
+        scope = null;
+    }
+
     private File resolveFile(String path) {
         File root = manifestRoot;
         if (root == null) {
@@ -62,30 +101,20 @@ public class Manifest {
      * @throws MojoExecutionException on error
      */
     public Collection<File> buildFileList(String[] fields) throws MojoExecutionException {
-        Context cx = Context.enter();
-        Scriptable scope = cx.initStandardObjects();
-        try {
-            cx.evaluateReader(scope, new FileReader(manifest), manifest.getPath(), 1, null);
-        } catch (FileNotFoundException e) {
-            throw new MojoExecutionException(e.getMessage());
-        } catch (IOException e) {
-            throw new MojoExecutionException(e.getMessage());
-        }
-
         List<File> fileList = new LinkedList<File>();
 
         for (String fieldName : fields) {
-            Object field = scope.get(fieldName, scope);
+            Object field = getField(fieldName);
             if (field instanceof java.lang.String) {
                 fileList.add(resolveFile((String) field));
-            } else if (field instanceof NativeArray) {
-                NativeArray array = (NativeArray) field;
-                for (int i = 0; i < array.getLength(); i++) {
-                    Object entry = array.get(i, array);
+            } else if (field instanceof List<?>) {
+                List<?> array = (List<?>) field;
+                for (int i = 0; i < array.size(); i++) {
+                    Object entry = array.get(i);
                     if (entry instanceof String) {
                         fileList.add(resolveFile((String) entry));
                     } else {
-                        throw new MojoExecutionException("Entry " + i + " in manifest field '" + fieldName + "' is not a string: " + entry.toString());
+                        throw new MojoExecutionException("Entry " + i + " in manifest field '" + fieldName + "' is not a string: " + String.valueOf(entry));
                     }
                 }
             } else {
@@ -95,25 +124,102 @@ public class Manifest {
         return fileList;
     }
 
-    static Collection<String> parseDependencies(Reader file) throws IOException {
-        Pattern re = Pattern.compile(".*@requires +(.+)$");
-        LinkedHashSet<String> deps = new LinkedHashSet<String>();
-        BufferedReader in = new BufferedReader(file);
-        String line;
-        do {
-            line = in.readLine();
-            if (line != null) {
-                Matcher m = re.matcher(line);
-                if (m.matches()) {
-                    deps.add(m.group(1));
+    /**
+     * Look up a field in the manifest, evaluating the manifest the first time
+     * it's needed. Arrays are returned as lists.
+     *
+     * @param fieldName name of the field
+     * @return the value of the field, or null if it doesn't exist
+     * @throws MojoExecutionException on error
+     */
+    private Object getField(String fieldName) throws MojoExecutionException {
+        load();
+        if (fields != null) {
+            return fields.get(fieldName);
+        }
+        Object value = scope.get(fieldName, scope);
+        return value == Scriptable.NOT_FOUND ? null : toJava(value);
+    }
+
+    /**
+     * Evaluate the manifest file now, unless it has already been evaluated.
+     *
+     * @throws MojoExecutionException on error
+     */
+    public void load() throws MojoExecutionException {
+        if (fields == null && scope == null) {
+            evaluate();
+        }
+    }
+
+    /**
+     * Evaluate the manifest file. A manifest consisting of a single JSON
+     * object is parsed directly; anything else is run through Rhino.
+     *
+     * @throws MojoExecutionException on error
+     */
+    private void evaluate() throws MojoExecutionException {
+        String source;
+        try {
+            source = new String(CompressionCache.readFile(manifest), charset);
+        } catch (IOException e) {
+            throw new MojoExecutionException(e.getMessage());
+        }
+
+        if (source.trim().startsWith("{")) {
+            try {
+                Object json = Json.parse(source);
+                if (json instanceof Map<?, ?>) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> values = (Map<String, Object>) json;
+                    fields = values;
+                    return;
                 }
+            } catch (IllegalArgumentException e) {
+                // Not JSON after all; let Rhino have a go at it
             }
-        } while (line != null);
-        return deps;
+        }
+
+        Context cx = Context.enter();
+        try {
+            // The manifest is run once, so compiling it to bytecode is a waste of time
+            cx.setOptimizationLevel(-1);
+            Scriptable newScope = cx.initStandardObjects();
+            cx.evaluateString(newScope, source, manifest.getPath(), 1, null);
+            scope = newScope;
+        } catch (RhinoException e) {
+            throw new MojoExecutionException(e.getMessage());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static Object toJava(Object value) {
+        if (value instanceof NativeArray) {
+            NativeArray array = (NativeArray) value;
+            List<Object> list = new ArrayList<Object>((int) array.getLength());
+            for (int i = 0; i < array.getLength(); i++) {
+                list.add(array.get(i, array));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    private static final RequiresScanner DEFAULT_SCANNER = new RequiresScanner(false);
+
+    static Collection<String> parseDependencies(Reader file) throws IOException {
+        StringBuilder data = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = file.read(buffer)) != -1) {
+            data.append(buffer, 0, read);
+        }
+        return DEFAULT_SCANNER.scan(new ByteArrayInputStream(data.toString().getBytes("UTF-8")));
     }
 
     static Collection<String> parseDependencies(File file) throws IOException {
-        return parseDependencies(new FileReader(file));
+        return DEFAULT_SCANNER.scan(file);
     }
 
     static Collection<String> parseDependencies(Collection<File> files) throws IOException {
@@ -153,55 +259,31 @@ public class Manifest {
         System.out.println("]");
     }
 
+    /**
+     * Get the dependency graph for a dependency root. The graph is kept
+     * between calls, so files are only parsed once per manifest.
+     *
+     * @param dependencyRoot root of file tree for dependencies
+     * @return dependency graph
+     */
+    public DependencyGraph getDependencyGraph(File dependencyRoot) {
+        if (graph == null || !graph.getRoot().equals(dependencyRoot)) {
+            graph = new DependencyGraph(dependencyRoot, scanner, executor);
+        }
+        return graph;
+    }
+
     /**
      * Build an OpenLayers dependency tree.
      * @param files a list of files to build a tree from
      * @param dependencyRoot root of file tree for dependencies
-     * @return a list of files requested by dependencies
+     * @return a list of files requested by dependencies, sorted so that dependencies come first
      * @throws IOException on IO error
+     * @throws MojoFailureException if the dependencies contain a cycle
      */
-    public Collection<File> buildDependencyTree(Collection<File> files, File dependencyRoot) throws IOException {
-        // Gather all files that are listed as dependencies
-        Collection<File> sourceDeps = Manifest.parseDependencies(files, dependencyRoot);
-        Collection<File> unsortedDeps = new LinkedHashSet<File>();
-        unsortedDeps.addAll(Manifest.parseDependencies(sourceDeps, dependencyRoot));
-        unsortedDeps.addAll(sourceDeps);
-        Collection<File> tmpDeps = Collections.emptySet();
-        while (unsortedDeps.size() != tmpDeps.size()) {
-            tmpDeps = unsortedDeps;
-            unsortedDeps = new LinkedHashSet<File>();
-            unsortedDeps.addAll(Manifest.parseDependencies(tmpDeps, dependencyRoot));
-            unsortedDeps.addAll(tmpDeps);
-        }
-
-        // Build a graph with each dependency as a disconnected vertex
-        IncidenceListGraph graph = new IncidenceListGraph();
-        Map<File, Vertex> fileToVertex = new HashMap<File, Vertex>();
-        for (File file : unsortedDeps) {
-            Vertex vertex = graph.insertVertex(file);
-            fileToVertex.put(file, vertex);
-        }
-
-        // Build edges between dependency vertices
-        for (File file : unsortedDeps) {
-            Collection<File> deps = parseDependencies(file, dependencyRoot);
-            for (File dep : deps) {
-                graph.insertDirectedEdge(fileToVertex.get(dep), fileToVertex.get(file), null);
-            }
-        }
-
-        // Perform a topological sort on the graph
-        TopologicalSort sort = new TopologicalSort();
-        sort.execute(graph);
-        VertexIterator it = sort.sortedVertices();
-        List<File> sortedDeps = new LinkedList<File>();
-        while (it.hasNext()) {
-            Vertex vertex = it.nextVertex();
-            sortedDeps.add((File) vertex.element());
-        }
-
-        return sortedDeps;
+    public Collection<File> buildDependencyTree(Collection<File> files, File dependencyRoot) throws IOException, MojoFailureException {
+        DependencyGraph deps = getDependencyGraph(dependencyRoot);
+        return deps.sort(deps.resolve(files, false));
     }
 
 }
-
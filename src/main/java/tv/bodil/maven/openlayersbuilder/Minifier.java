@@ -0,0 +1,37 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * A Javascript minifier engine.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public interface Minifier {
+    /**
+     * @return true if proper mode is enabled: stricter checks, with warnings reported
+     */
+    boolean isProper();
+
+    /**
+     * Compress a collection of JS files into one.
+     *
+     * @param files files to compress, in order
+     * @param failOnWarn fail on warnings
+     * @return compressed data
+     * @throws IOException on IO error
+     * @throws MojoFailureException on failure
+     */
+    String compress(Collection<File> files, boolean failOnWarn) throws IOException, MojoFailureException;
+
+    /**
+     * Describe the engine and its settings as a string, for use in cache keys.
+     *
+     * @return a string identifying the engine and its settings
+     */
+    String getOptionsFingerprint();
+}
@@ -1,19 +1,42 @@
 package tv.bodil.maven.openlayersbuilder;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -27,6 +50,7 @@ import com.yahoo.platform.yui.compressor.CssCompressor;
  * @author Bodil Stokke (bodil@bodil.tv)
  *
  * @goal package
+ * @threadSafe
  */
 public class Packager extends AbstractMojo {
 
@@ -67,129 +91,1490 @@ public class Packager extends AbstractMojo {
      */
     private String[] openLayersFirst;
 
+    /**
+     * If true, OpenLayers files whose symbols are never referenced from the
+     * application files are left out of the bundle.
+     *
+     * @parameter expression=false
+     */
+    private boolean pruneUnusedFiles;
+
+    /**
+     * OpenLayers files to keep when pruning even if they look unused, relative to openLayersBase.
+     * Files in openLayersFirst are always kept.
+     *
+     * @parameter
+     */
+    private String[] pruneKeep;
+
+    /**
+     * Path to write the list of pruned files, and the reason for each, to.
+     *
+     * @parameter expression="${project.build.directory}/openlayersbuilder-pruned.json"
+     */
+    private File pruneReport;
+
+    /**
+     * If true, only the leading comment block of each file is scanned for @requires directives.
+     *
+     * @parameter expression=false
+     */
+    private boolean headerOnlyRequires;
+
     /**
      * List of fields in the manifest file to build the Javascript file list from.
+     * Required unless entrypoints are configured.
+     *
+     * @parameter
+     */
+    private String[] manifestJsFields;
+
+    /**
+     * List of fields in the manifest file to build the CSS file list from.
+     *
+     * @parameter
+     * @required
+     */
+    private String[] manifestCssFields;
+
+    /**
+     * Target path for the Javascript bundle.
+     *
+     * @parameter expression="${project.build.directory}/dist/dist.js"
+     */
+    private File jsTarget;
+
+    /**
+     * Named Javascript bundles to build instead of the single jsTarget bundle,
+     * each with its own deps and JS manifest fields. Files used by more than
+     * one entrypoint are put in shared chunks, named shared-*, so entrypoint
+     * names can't start with "shared-".
+     *
+     * @parameter
+     */
+    private Entrypoint[] entrypoints;
+
+    /**
+     * Parts of the Javascript to load on first use instead of with the
+     * jsTarget bundle. Each part is compiled into its own file next to the
+     * bundle, named like a variant, eg. dist-editing.js. A loader is put at
+     * the start of the bundle; call OpenLayersBuilder.load(name, callback)
+     * to load a part. The watch and serve goals fail if any are configured.
+     *
+     * @parameter
+     */
+    private Deferred[] deferred;
+
+    /**
+     * URL the loader fetches deferred parts from. Defaults to the directory
+     * the bundle itself was loaded from.
+     *
+     * @parameter
+     */
+    private String deferredBaseUrl;
+
+    /**
+     * Variants to build instead of the single jsTarget and cssTarget
+     * bundles, each with its own manifest fields, targets and compression
+     * settings. The manifest is read and the dependencies resolved once for
+     * all of them, and compressed library output is shared between them.
+     * The watch and serve goals fail if any are configured.
+     *
+     * @parameter
+     */
+    private Variant[] variants;
+
+    /**
+     * Directory to write entrypoint bundles, shared chunks and the
+     * entrypoints.json chunk listing to.
+     *
+     * @parameter expression="${project.build.directory}/dist"
+     */
+    private File entrypointDirectory;
+
+    /**
+     * Target path for the CSS bundle.
+     *
+     * @parameter expression="${project.build.directory}/dist/dist.css"
+     */
+    private File cssTarget;
+
+    /**
+     * Whether to compress the JS and CSS files.
+     *
+     * @parameter expression=true
+     */
+    private boolean compress;
+
+    /**
+     * If true, warnings in app local code are treated as errors.
+     *
+     * @parameter expression=true
+     */
+    private boolean failOnWarn;
+
+    /**
+     * Character encoding of the source files and the generated bundles.
+     *
+     * @parameter expression="${project.build.sourceEncoding}"
+     */
+    private String encoding;
+
+    /**
+     * Whether to reuse compressed output from previous builds when the inputs haven't changed.
+     *
+     * @parameter expression=true
+     */
+    private boolean useCache;
+
+    /**
+     * Directory to store cached compressed output in.
+     *
+     * @parameter expression="${project.build.directory}/openlayersbuilder-cache"
+     */
+    private File cacheDirectory;
+
+    /**
+     * Maximum number of entries to keep in the cache directory. The least
+     * recently used entries are deleted at the end of each build.
+     *
+     * @parameter expression=500
+     */
+    private int maxCacheEntries;
+
+    /**
+     * Whether to compress the library JS, application JS and CSS concurrently.
+     *
+     * @parameter expression=false
+     */
+    private boolean parallel;
+
+    /**
+     * Number of threads to use in parallel mode, and to scan files for
+     * dependencies with. Defaults to the number of available processors.
+     *
+     * @parameter
+     */
+    private int threads;
+
+    /**
+     * Number of chunks to split the external libraries into in parallel mode.
+     * Each chunk is compiled separately, so Closure can't optimise across
+     * chunk boundaries; the chunks are still concatenated in dependency order.
+     *
+     * @parameter expression=1
+     */
+    private int libraryChunks;
+
+    /**
+     * Compile the external libraries in batches of at most this many bytes
+     * of source, one batch at a time, writing each batch's output before
+     * the next is compiled. Keeps memory use bounded for very large
+     * libraries, at the same cost in compression as libraryChunks. Batches
+     * follow dependency order. Off if 0.
+     *
+     * @parameter expression=0
+     */
+    private long libraryBatchSize;
+
+    /**
+     * Minifier for the external libraries: closure, yui (YUI Compressor) or
+     * strip (removes comments and whitespace only).
+     *
+     * @parameter expression="closure"
+     */
+    private String libraryMinifier;
+
+    /**
+     * Minifier for the application local files: closure, yui or strip.
+     *
+     * @parameter expression="closure"
+     */
+    private String applicationMinifier;
+
+    /**
+     * Path to write a JSON report of build timings and sizes to.
+     *
+     * @parameter expression="${project.build.directory}/openlayersbuilder-report.json"
+     */
+    private File reportFile;
+
+    /**
+     * Whether to also write gzipped copies of the bundles, with a .gz suffix.
+     *
+     * @parameter expression=false
+     */
+    private boolean gzip;
+
+    /**
+     * Compression level for gzipped bundles, from 1 (fastest) to 9 (smallest).
+     *
+     * @parameter expression=9
+     */
+    private int gzipLevel;
+
+    /**
+     * Whether to inline images and fonts referenced from the CSS as data
+     * URIs when they are no larger than inlineAssetLimit. Relative URLs
+     * are resolved against the directory of the CSS file they appear in.
+     *
+     * @parameter expression=false
+     */
+    private boolean inlineAssets;
+
+    /**
+     * Largest image or font, in bytes, to inline when inlineAssets is on.
+     *
+     * @parameter expression=4096
+     */
+    private int inlineAssetLimit;
+
+    /**
+     * Whether to put a hash of the content into the bundle filenames, so
+     * dist.js is written as eg. dist.0a1b2c3d.js and can be cached forever.
+     * Older hashed copies of the same bundle are deleted.
+     *
+     * @parameter expression=false
+     */
+    private boolean hashFilenames;
+
+    /**
+     * Number of hex digits of the content hash to use in hashed filenames.
+     *
+     * @parameter expression=8
+     */
+    private int hashLength;
+
+    /**
+     * Path to write the asset manifest to when hashFilenames is on, mapping
+     * each bundle's plain name to its hashed name. Paths are relative to
+     * the manifest's directory. Written as a properties file if the name
+     * ends in .properties, and as JSON otherwise.
+     *
+     * @parameter expression="${project.build.directory}/dist/assets.json"
+     */
+    private File assetManifest;
+
+    /**
+     * Whether to report how much each input file contributes to each
+     * bundle, before and after compression, grouped by OpenLayers package.
+     * Turned on automatically when group budgets are configured; budgets
+     * for whole bundles only need the size written. Compressed sizes come
+     * from compressing each file on its own, so this adds to the build
+     * time when the compression cache is cold.
+     *
+     * @parameter expression=false
+     */
+    private boolean analyseSizes;
+
+    /**
+     * Path to write the size analysis to.
+     *
+     * @parameter expression="${project.build.directory}/openlayersbuilder-sizes.json"
+     */
+    private File sizeReport;
+
+    /**
+     * Size limits for bundles (by file name, eg. dist.js) or groups (eg.
+     * OpenLayers/Layer, or application). A group's budget also covers the
+     * groups below it, so a budget for OpenLayers counts OpenLayers/Layer
+     * too. The build fails if any is exceeded.
+     *
+     * @parameter
+     */
+    private Budget[] budgets;
+
+    /**
+     * Whether to keep an index of the @requires edges found in the
+     * openLayersBase tree between builds, so unchanged files aren't scanned
+     * again. Entries are checked against each file's size and modification
+     * time, falling back to a content hash.
+     *
+     * @parameter expression=true
+     */
+    private boolean useDependencyIndex;
+
+    /**
+     * Directory to keep dependency indexes in. Each tree gets its own index
+     * file, so the directory can be shared between projects.
+     *
+     * @parameter expression="${project.build.directory}/openlayersbuilder-index"
+     */
+    private File dependencyIndexDirectory;
+
+    /**
+     * Whether to share compressed Javascript with other builds running in the
+     * same JVM, such as other modules of a parallel reactor build packaging
+     * the same OpenLayers files.
+     *
+     * @parameter expression=true
+     */
+    private boolean shareOutput;
+
+    static final List<String> MINIFIERS = Arrays.asList("closure", "yui", "strip");
+
+    private CompressionCache cache;
+    private BuildReport report;
+    private ExecutorService executor;
+    private ExecutorService scanExecutor;
+    private ExecutorService gzipExecutor;
+    private int threadCount;
+    private Charset charset;
+    private Map<List<File>, String> memory;
+    private Map<File, byte[]> outputs;
+    private SymbolPruner pruner;
+    private DataUriInliner inliner;
+    private DependencyIndex index;
+    private DependencyGraph indexedGraph;
+    private long buildStarted;
+    private SizeAnalyzer analyzer;
+    private boolean measureFiles;
+    private String variantName;
+    private final Map<File, File> requiredBy = new HashMap<File, File>();
+    private final Map<String, String> pruned = new TreeMap<String, String>();
+    private final Map<String, String> assets = new TreeMap<String, String>();
+    private int hashChars;
+
+    /**
+     * Run a task on the executor in parallel mode, or immediately otherwise.
+     *
+     * @param task task to run
+     * @return the result of the task
+     */
+    private <T> Future<T> submit(Callable<T> task) {
+        if (executor != null) {
+            return executor.submit(task);
+        }
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        return future;
+    }
+
+    /**
+     * Wait for the result of a task, rethrowing any exception it failed with.
+     *
+     * @param future the task
+     * @return the result of the task
+     * @throws MojoExecutionException on error
+     * @throws MojoFailureException on failure
+     */
+    private <T> T join(Future<T> future) throws MojoExecutionException, MojoFailureException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MojoFailureException) {
+                throw (MojoFailureException) cause;
+            } else if (cause instanceof MojoExecutionException) {
+                throw (MojoExecutionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new MojoExecutionException(cause.getMessage());
+        }
+    }
+
+    /**
+     * Split a list of files into contiguous chunks of roughly equal size.
+     *
+     * @param files files to split
+     * @param count number of chunks
+     * @return list of chunks, in the original order
+     */
+    static List<List<File>> splitChunks(Collection<File> files, int count) {
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        List<List<File>> chunks = new ArrayList<List<File>>();
+        List<File> chunk = new ArrayList<File>();
+        long size = 0;
+        for (File file : files) {
+            chunk.add(file);
+            size += file.length();
+            if (chunks.size() < count - 1 && size * count >= total * (chunks.size() + 1)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<File>();
+            }
+        }
+        if (!chunk.isEmpty() || chunks.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * Build each deferred part, leaving out files the main bundle or an
+     * earlier part already holds. A part sharing files with an earlier part
+     * has the loader load that part first.
+     *
+     * @param m the manifest
+     * @param main files in the main bundle
+     * @return the loader for the main bundle
+     */
+    private String buildDeferred(Manifest m, JSFiles main) throws MojoExecutionException, MojoFailureException {
+        Set<File> loaded = new HashSet<File>(main.all());
+        Map<String, Set<File>> built = new LinkedHashMap<String, Set<File>>();
+        Map<String, Map<String, Object>> parts = new LinkedHashMap<String, Map<String, Object>>();
+        for (Deferred part : deferred) {
+            if (part.getName() == null || parts.containsKey(part.getName())) {
+                throw new MojoExecutionException("Deferred parts need a unique name");
+            }
+            JSFiles js = resolveDeferred(m, part);
+            List<String> requires = new ArrayList<String>();
+            for (Map.Entry<String, Set<File>> earlier : built.entrySet()) {
+                if (!Collections.disjoint(earlier.getValue(), js.all())) {
+                    requires.add(earlier.getKey());
+                }
+            }
+            js.libs.removeAll(loaded);
+            js.app.removeAll(loaded);
+            Set<File> files = new HashSet<File>(js.all());
+            loaded.addAll(files);
+            built.put(part.getName(), files);
+            if (files.isEmpty()) {
+                if (requires.isEmpty()) {
+                    getLog().warn("Deferred part " + part.getName() + " has nothing the bundle doesn't already hold");
+                } else {
+                    getLog().info("Deferred part " + part.getName() + " only loads " + requires);
+                }
+                parts.put(part.getName(), DeferredLoader.part(null, requires));
+                continue;
+            }
+            getLog().info("Building deferred part " + part.getName() + " (" + files.size() + " files)");
+            File written = buildJSOutput(js.libs, js.app, variantTarget(jsTarget, part.getName()));
+            parts.put(part.getName(), DeferredLoader.part(written.getName(), requires));
+        }
+        return DeferredLoader.script(deferredBaseUrl, parts);
+    }
+
+    /**
+     * Find the files of a deferred part: its manifest files, and the closure
+     * of its OpenLayers dependencies in dependency order.
+     */
+    private JSFiles resolveDeferred(Manifest m, Deferred part) throws MojoExecutionException, MojoFailureException {
+        Collection<File> depsFileList = part.getManifestDepsFields() != null ? m.buildFileList(part.getManifestDepsFields()) : new ArrayList<File>(0);
+        Collection<File> jsFileList = part.getManifestJsFields() != null ? m.buildFileList(part.getManifestJsFields()) : new ArrayList<File>(0);
+        Collection<File> roots = new ArrayList<File>(0);
+        if (part.getOpenLayersFiles() != null) {
+            if (openLayersBase == null) {
+                throw new MojoExecutionException("Deferred part " + part.getName() + " lists OpenLayers files, but no openLayersBase is configured");
+            }
+            roots = Manifest.resolveFileNames(Arrays.asList(part.getOpenLayersFiles()), openLayersBase);
+        }
+        LinkedHashSet<File> libs = new LinkedHashSet<File>();
+        if (openLayersBase != null && !(depsFileList.isEmpty() && roots.isEmpty())) {
+            try {
+                DependencyGraph graph = m.getDependencyGraph(openLayersBase);
+                List<File> starts = new ArrayList<File>(depsFileList);
+                starts.addAll(roots);
+                LinkedHashSet<File> closure = new LinkedHashSet<File>(graph.resolve(starts, false));
+                closure.addAll(roots);
+                libs.addAll(graph.sort(closure));
+            } catch (IOException e) {
+                throw new MojoFailureException(e.getMessage());
+            }
+        }
+        LinkedHashSet<File> app = new LinkedHashSet<File>();
+        for (File file : jsFileList) {
+            (depsFileList.contains(file) ? app : libs).add(file);
+        }
+        libs.removeAll(app);
+        return new JSFiles(libs, app);
+    }
+
+    /**
+     * Split a list of files into contiguous batches of at most a given size.
+     * A file larger than the limit gets a batch of its own.
+     *
+     * @param files files to split
+     * @param maxBytes maximum total size of a batch
+     * @return list of batches, in the original order
+     */
+    static List<List<File>> splitBatches(Collection<File> files, long maxBytes) {
+        List<List<File>> batches = new ArrayList<List<File>>();
+        List<File> batch = new ArrayList<File>();
+        long size = 0;
+        for (File file : files) {
+            long length = file.length();
+            if (!batch.isEmpty() && size + length > maxBytes) {
+                batches.add(batch);
+                batch = new ArrayList<File>();
+                size = 0;
+            }
+            batch.add(file);
+            size += length;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * A task that isn't run until its output is about to be written, so
+     * only one such task's output is held in memory at a time.
+     */
+    private static class DeferredTask<T> extends FutureTask<T> {
+        DeferredTask(Callable<T> task) {
+            super(task);
+        }
+    }
+
+    private List<Future<String>> compressJS(Collection<File> extJs, final Collection<File> localJs) {
+        List<Future<String>> parts = new ArrayList<Future<String>>();
+        if (libraryBatchSize > 0) {
+            List<List<File>> batches = splitBatches(extJs, libraryBatchSize);
+            for (int i = 0; i < batches.size(); i++) {
+                final List<File> batch = batches.get(i);
+                final String description = "external libraries (batch " + (i + 1) + "/" + batches.size() + ")";
+                parts.add(new DeferredTask<String>(new Callable<String>() {
+                    public String call() throws Exception {
+                        return compressJSBatch(batch, description);
+                    }
+                }));
+            }
+            parts.add(submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return compressJSFiles(localJs, true, failOnWarn, "application local files");
+                }
+            }));
+            return parts;
+        }
+        List<List<File>> chunks = splitChunks(extJs, executor != null ? Math.max(libraryChunks, 1) : 1);
+        for (int i = 0; i < chunks.size(); i++) {
+            final List<File> chunk = chunks.get(i);
+            final String description = chunks.size() > 1 ? "external libraries (chunk " + (i + 1) + "/" + chunks.size() + ")" : "external libraries";
+            parts.add(submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return compressJSFiles(chunk, false, false, description);
+                }
+            }));
+        }
+        parts.add(submit(new Callable<String>() {
+            public String call() throws Exception {
+                return compressJSFiles(localJs, true, failOnWarn, "application local files");
+            }
+        }));
+        return parts;
+    }
+
+    private String compressJSFiles(Collection<File> files, boolean proper, boolean failOnWarn, String description) throws IOException, MojoExecutionException, MojoFailureException {
+        List<File> memoryKey = null;
+        if (memory != null) {
+            memoryKey = new ArrayList<File>(files);
+            synchronized (memory) {
+                String remembered = memory.get(memoryKey);
+                if (remembered != null) {
+                    report.count("memoryHits", 1);
+                    getLog().debug("Reusing compressed " + description + " from memory");
+                    return remembered;
+                }
+            }
+        }
+        String compressed = compressJSFilesShared(files, proper, failOnWarn, description);
+        if (memory != null) {
+            synchronized (memory) {
+                memory.put(memoryKey, compressed);
+            }
+        }
+        return compressed;
+    }
+
+    /**
+     * Compress a batch of library files, bypassing the in-memory and shared
+     * outputs so nothing but the disk cache keeps the result around.
+     */
+    private String compressJSBatch(Collection<File> files, String description) throws IOException, MojoFailureException {
+        Minifier compressor = createMinifier(false);
+        String key = cache != null ? cacheKey(compressor, files, false) : null;
+        return compressJSFilesCached(key, compressor, files, false, description);
+    }
+
+    private String cacheKey(Minifier compressor, Collection<File> files, boolean failOnWarn) throws IOException {
+        long start = System.nanoTime();
+        String key = CompressionCache.key("js", files, compressor.getOptionsFingerprint(), String.valueOf(compressor.isProper()), String.valueOf(failOnWarn), charset.name());
+        report.time(BuildReport.READ, start);
+        return key;
+    }
+
+    private String compressJSFilesShared(final Collection<File> files, final boolean proper, final boolean failOnWarn, final String description) throws IOException, MojoExecutionException, MojoFailureException {
+        final Minifier compressor = createMinifier(proper);
+        if (!shareOutput && cache == null) {
+            return compressJSFilesCached(null, compressor, files, failOnWarn, description);
+        }
+        final String key = cacheKey(compressor, files, failOnWarn);
+        if (!shareOutput) {
+            return compressJSFilesCached(key, compressor, files, failOnWarn, description);
+        }
+        final boolean[] produced = new boolean[1];
+        Future<String> output = SharedOutputs.get(key, new Callable<String>() {
+            public String call() throws Exception {
+                produced[0] = true;
+                return compressJSFilesCached(key, compressor, files, failOnWarn, description);
+            }
+        });
+        if (!produced[0]) {
+            getLog().info("Using " + description + " compressed by another build in this JVM");
+            report.count("sharedHits", 1);
+        }
+        return join(output);
+    }
+
+    private String compressJSFilesCached(String key, Minifier compressor, Collection<File> files, boolean failOnWarn, String description) throws IOException, MojoFailureException {
+        boolean proper = compressor.isProper();
+        if (cache != null) {
+            long start = System.nanoTime();
+            String cached = cache.get(key);
+            report.time(BuildReport.READ, start);
+            if (cached != null) {
+                report.count("cacheHits", 1);
+                getLog().info("Using cached compressed " + description);
+                return cached;
+            }
+            report.count("cacheMisses", 1);
+        }
+        getLog().info("Compressing " + description + " with " + (proper ? applicationMinifier : libraryMinifier) + "...");
+        long start = System.nanoTime();
+        String compressed = compressor.compress(files, failOnWarn);
+        report.time(proper ? BuildReport.COMPRESS_APPLICATION : BuildReport.COMPRESS_LIBRARY, start);
+        if (cache != null) {
+            cache.put(key, compressed);
+        }
+        return compressed;
+    }
+
+    /**
+     * Start reading, inlining and compressing each CSS file, in parallel mode on the executor.
+     *
+     * @param cssFileList files to compress
+     * @return the output for each file, in order
+     */
+    private List<Future<String>> compressCSSFiles(Collection<File> cssFileList) {
+        List<Future<String>> parts = new ArrayList<Future<String>>(cssFileList.size());
+        for (final File file : cssFileList) {
+            parts.add(submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return compressCSSFile(file);
+                }
+            }));
+        }
+        return parts;
+    }
+
+    private String compressCSSFile(File file) throws IOException {
+        long start = System.nanoTime();
+        String css = new String(CompressionCache.readFile(file), charset);
+        if (inliner != null) {
+            css = inliner.inline(css, file.getAbsoluteFile().getParentFile());
+        }
+        report.time(BuildReport.READ, start);
+        if (!compress) {
+            return css.length() == 0 || css.endsWith("\n") ? css : css + "\n";
+        }
+        String key = null;
+        if (cache != null) {
+            key = CompressionCache.key("css", css);
+            String cached = cache.get(key);
+            if (cached != null) {
+                report.count("cacheHits", 1);
+                getLog().debug("Using cached compressed " + file.toString());
+                return cached;
+            }
+            report.count("cacheMisses", 1);
+        }
+        start = System.nanoTime();
+        StringWriter compressed = new StringWriter();
+        CssCompressor c = new CssCompressor(new StringReader(css));
+        c.compress(compressed, -1);
+        report.time(BuildReport.COMPRESS_CSS, start);
+        if (cache != null) {
+            cache.put(key, compressed.toString());
+        }
+        return compressed.toString();
+    }
+
+    /**
+     * Concatenate files onto a channel without decoding them, making sure each file ends with a newline.
+     *
+     * @param fileList files to concatenate
+     * @param out channel to write to
+     * @throws IOException on IO error
+     */
+    private void transferFileList(Collection<File> fileList, FileChannel out) throws IOException {
+        byte[] newline = "\n".getBytes(charset.name());
+        ByteBuffer last = ByteBuffer.allocate(1);
+        for (File file : fileList) {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                long position = 0;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, out);
+                }
+                last.clear();
+                if (size > 0 && channel.read(last, size - 1) == 1 && last.get(0) != '\n') {
+                    out.write(ByteBuffer.wrap(newline));
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Concatenate files onto a stream without decoding them, making sure each file ends with a newline.
+     *
+     * @param fileList files to concatenate
+     * @param out stream to write to
+     * @throws IOException on IO error
+     */
+    private void copyFileList(Collection<File> fileList, OutputStream out) throws IOException {
+        byte[] newline = "\n".getBytes(charset.name());
+        byte[] buffer = new byte[64 * 1024];
+        for (File file : fileList) {
+            InputStream in = new FileInputStream(file);
+            try {
+                int read;
+                byte last = '\n';
+                while ((read = in.read(buffer)) != -1) {
+                    if (read > 0) {
+                        out.write(buffer, 0, read);
+                        last = buffer[read - 1];
+                    }
+                }
+                if (last != '\n') {
+                    out.write(newline);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * A bundle being written: the target file and, if enabled, its gzipped
+     * sibling, both written in the same pass.
+     */
+    private class BundleOutput {
+        private final File target;
+        private final AtomicOutputFile file;
+        private AtomicOutputFile gzipFile;
+        private ParallelGzipOutputStream gzipStream;
+        private ByteArrayOutputStream buffer;
+        private final OutputStream stream;
+        private long size;
+
+        BundleOutput(File target) throws IOException {
+            this.target = target.getAbsoluteFile();
+            if (outputs != null) {
+                file = null;
+                buffer = new ByteArrayOutputStream();
+                stream = buffer;
+                return;
+            }
+            file = new AtomicOutputFile(target);
+            try {
+                if (gzip) {
+                    gzipFile = new AtomicOutputFile(new File(target.getPath() + ".gz"));
+                    gzipStream = new ParallelGzipOutputStream(new BufferedOutputStream(gzipFile.getStream()), gzipLevel, gzipExecutor, threadCount);
+                    stream = new TeeOutputStream(file.getStream(), gzipStream);
+                } else {
+                    stream = file.getStream();
+                }
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        /**
+         * @return a channel to write to directly, or null if the output has to go through a stream
+         */
+        FileChannel getChannel() {
+            return file != null && gzipStream == null ? file.getStream().getChannel() : null;
+        }
+
+        OutputStream getStream() {
+            return stream;
+        }
+
+        Writer getWriter() {
+            return new BufferedWriter(new OutputStreamWriter(stream, charset));
+        }
+
+        /**
+         * @return the file written, which has a hashed name if hashFilenames is on
+         */
+        File commit() throws IOException {
+            if (buffer != null) {
+                byte[] data = buffer.toByteArray();
+                size = data.length;
+                outputs.put(target, data);
+                return target;
+            }
+            if (gzipStream != null) {
+                gzipStream.finish();
+            }
+            File written = hashFilenames ? hashedName(target, file.contentHash()) : target;
+            commitOutput(file, written);
+            if (gzipFile != null) {
+                commitOutput(gzipFile, new File(written.getPath() + ".gz"));
+                getLog().info("Gzipped " + written.getName() + " to " + gzipStream.getCompressedSize() + " bytes");
+                report.count("gzipBytesOut", gzipStream.getCompressedSize());
+            }
+            if (hashFilenames) {
+                removeStaleHashedFiles(target, written);
+                recordAsset(target, written);
+            }
+            size = written.length();
+            return written;
+        }
+
+        /**
+         * @return size of the committed output
+         */
+        long getSize() {
+            return size;
+        }
+
+        void abort() {
+            if (file == null) {
+                return;
+            }
+            file.abort();
+            if (gzipFile != null) {
+                gzipFile.abort();
+            }
+        }
+    }
+
+    static long totalSize(Collection<File> fileList) {
+        long size = 0;
+        for (File file : fileList) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private void logRatio(String what, long before, long after) {
+        getLog().info(what + " " + after + " bytes (" + String.format("%.2f", (after * 100.0) / before) + "%)");
+    }
+
+    private void commitOutput(AtomicOutputFile output) throws IOException {
+        commitOutput(output, output.getTarget());
+    }
+
+    private void commitOutput(AtomicOutputFile output, File target) throws IOException {
+        if (!output.commit(target)) {
+            getLog().info(target.toString() + " is up to date");
+        }
+    }
+
+    /**
+     * Name a file after a hash of its content: dist.js becomes dist.0a1b2c3d.js.
+     *
+     * @param target the plain target file
+     * @param hash hex encoded content hash
+     * @return the hashed file, in the same directory as the target
+     */
+    File hashedName(File target, String hash) {
+        String name = target.getName();
+        int dot = name.lastIndexOf('.');
+        String prefix = hash.substring(0, Math.min(hashChars, hash.length()));
+        String hashed = dot > 0 ? name.substring(0, dot) + "." + prefix + name.substring(dot) : name + "." + prefix;
+        return new File(target.getAbsoluteFile().getParentFile(), hashed);
+    }
+
+    private void removeStaleHashedFiles(File target, File current) {
+        String name = target.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        Pattern hashed = Pattern.compile(Pattern.quote(base) + "\\.[0-9a-f]{" + hashChars + "}" + Pattern.quote(extension) + "(\\.gz)?");
+        File[] siblings = current.getParentFile().listFiles();
+        if (siblings == null) {
+            return;
+        }
+        for (File sibling : siblings) {
+            String siblingName = sibling.getName();
+            if (hashed.matcher(siblingName).matches() && !siblingName.equals(current.getName())
+                    && !siblingName.equals(current.getName() + ".gz")) {
+                getLog().debug("Removing stale bundle " + sibling);
+                if (!sibling.delete()) {
+                    getLog().warn("Unable to remove stale bundle " + sibling);
+                }
+            }
+        }
+    }
+
+    private void recordAsset(File target, File written) {
+        File base = assetManifest != null ? assetManifest.getAbsoluteFile().getParentFile() : target.getParentFile();
+        synchronized (assets) {
+            assets.put(relativePath(base, target), relativePath(base, written));
+        }
+    }
+
+    static String relativePath(File base, File file) {
+        String basePath = base.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if (path.startsWith(basePath)) {
+            path = path.substring(basePath.length());
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Write the asset manifest, if hashed filenames are enabled.
+     *
+     * @throws MojoExecutionException on error
+     */
+    void writeAssetManifest() throws MojoExecutionException {
+        if (!hashFilenames || assetManifest == null) {
+            return;
+        }
+        Map<String, String> current;
+        synchronized (assets) {
+            current = new TreeMap<String, String>(assets);
+        }
+        if (assetManifest.getName().endsWith(".properties")) {
+            StringBuilder properties = new StringBuilder();
+            for (Map.Entry<String, String> asset : current.entrySet()) {
+                properties.append(escapeProperty(asset.getKey())).append('=').append(escapeProperty(asset.getValue())).append('\n');
+            }
+            writeTextFile(assetManifest, properties.toString());
+        } else {
+            writeTextFile(assetManifest, Json.write(current) + "\n");
+        }
+    }
+
+    private static String escapeProperty(String value) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '=' || c == ':' || c == ' ' || c == '#' || c == '!') {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    private File buildJSOutput(Collection<File> extJs, Collection<File> localJs, File target) throws MojoExecutionException, MojoFailureException {
+        return buildJSOutput(extJs, localJs, target, null);
+    }
+
+    /**
+     * Build a Javascript bundle.
      *
-     * @parameter
-     * @required
+     * @param extJs external library files
+     * @param localJs application local files
+     * @param target file to write the bundle to
+     * @param preamble script to put at the start of the bundle as is, or null
+     * @return the file written
      */
-    private String[] manifestJsFields;
+    private File buildJSOutput(Collection<File> extJs, Collection<File> localJs, File target, String preamble) throws MojoExecutionException, MojoFailureException {
+        long sourceSize = totalSize(extJs) + totalSize(localJs);
+        getLog().info((compress ? "Compressing" : "Concatenating") + " Javascript (source is " + sourceSize + " bytes)");
+        List<Future<String>> parts = compress ? compressJS(extJs, localJs) : null;
+        List<Future<Long>> minifiedSizes = null;
+        if (measureFiles && compress) {
+            minifiedSizes = measureJS(extJs, false);
+            minifiedSizes.addAll(measureJS(localJs, true));
+        }
+        BundleOutput output = null;
+        File written;
+        long writtenSize;
+        try {
+            output = new BundleOutput(target);
+            if (preamble != null) {
+                output.getStream().write(preamble.getBytes(charset.name()));
+            }
+            if (compress) {
+                Writer out = output.getWriter();
+                for (int i = 0; i < parts.size(); i++) {
+                    Future<String> part = parts.get(i);
+                    if (part instanceof DeferredTask<?>) {
+                        ((DeferredTask<String>) part).run();
+                    }
+                    String data = join(part);
+                    // Let each part go as soon as it's written
+                    parts.set(i, null);
+                    long start = System.nanoTime();
+                    out.write(data);
+                    report.time(BuildReport.WRITE, start);
+                }
+                out.flush();
+            } else {
+                long start = System.nanoTime();
+                FileChannel channel = output.getChannel();
+                if (channel != null) {
+                    transferFileList(extJs, channel);
+                    transferFileList(localJs, channel);
+                } else {
+                    copyFileList(extJs, output.getStream());
+                    copyFileList(localJs, output.getStream());
+                }
+                report.time(BuildReport.WRITE, start);
+            }
+            getLog().info("Writing Javascript data to " + target.toString());
+            long start = System.nanoTime();
+            written = output.commit();
+            writtenSize = output.getSize();
+            report.time(BuildReport.WRITE, start);
+            output = null;
+        } catch (IOException e) {
+            throw new MojoExecutionException(e.getMessage());
+        } finally {
+            if (output != null) {
+                output.abort();
+            }
+        }
+        logRatio("Javascript bundle is", sourceSize, writtenSize);
+        report.count("jsFiles", extJs.size() + localJs.size());
+        report.count("jsBytesIn", sourceSize);
+        report.count("jsBytesOut", writtenSize);
+        if (analyzer != null) {
+            Set<File> app = new HashSet<File>(localJs);
+            List<File> files = new ArrayList<File>(extJs);
+            files.addAll(localJs);
+            List<SizeAnalyzer.FileSize> sizes = new ArrayList<SizeAnalyzer.FileSize>(files.size());
+            // Budgets for whole bundles only need the size written
+            for (int i = 0; measureFiles && i < files.size(); i++) {
+                File file = files.get(i);
+                long minified = minifiedSizes != null ? join(minifiedSizes.get(i)).longValue() : file.length();
+                sizes.add(fileSize(file, groupOf(file, app.contains(file)), minified, sourceSize, writtenSize));
+            }
+            analyzer.add(variantName, target.getName(), writtenSize, sizes);
+        }
+        return written;
+    }
+
+    private void buildCSSOutput(Collection<File> cssFileList, List<Future<String>> parts, File target) throws MojoExecutionException, MojoFailureException {
+        long sourceSize = totalSize(cssFileList);
+        List<Long> minifiedSizes = new ArrayList<Long>();
+        getLog().info((compress ? "Compressing" : "Concatenating") + " CSS (source is " + sourceSize + " bytes)");
+        BundleOutput output = null;
+        File written;
+        long writtenSize;
+        try {
+            output = new BundleOutput(target);
+            Writer out = output.getWriter();
+            for (Future<String> part : parts) {
+                String data = join(part);
+                long start = System.nanoTime();
+                out.write(data);
+                report.time(BuildReport.WRITE, start);
+                if (measureFiles) {
+                    minifiedSizes.add(Long.valueOf(data.getBytes(charset.name()).length));
+                }
+            }
+            long start = System.nanoTime();
+            out.flush();
+            getLog().info("Writing CSS data to " + target.toString());
+            written = output.commit();
+            writtenSize = output.getSize();
+            report.time(BuildReport.WRITE, start);
+            output = null;
+        } catch (IOException e) {
+            throw new MojoExecutionException(e.getMessage());
+        } finally {
+            if (output != null) {
+                output.abort();
+            }
+        }
+        logRatio("CSS bundle is", sourceSize, writtenSize);
+        report.count("cssFiles", cssFileList.size());
+        report.count("cssBytesIn", sourceSize);
+        report.count("cssBytesOut", writtenSize);
+        if (analyzer != null) {
+            List<SizeAnalyzer.FileSize> sizes = new ArrayList<SizeAnalyzer.FileSize>(cssFileList.size());
+            int i = 0;
+            for (File file : measureFiles ? cssFileList : Collections.<File>emptyList()) {
+                sizes.add(fileSize(file, groupOf(file, false), minifiedSizes.get(i++).longValue(), sourceSize, writtenSize));
+            }
+            analyzer.add(variantName, target.getName(), writtenSize, sizes);
+        }
+    }
 
     /**
-     * List of fields in the manifest file to build the CSS file list from.
+     * Start compressing each file on its own, to find out how much it adds to a bundle.
      *
-     * @parameter
-     * @required
+     * @param files files to measure
+     * @param proper whether to compress in proper mode
+     * @return the compressed size of each file, or -1 where compression failed
      */
-    private String[] manifestCssFields;
+    private List<Future<Long>> measureJS(Collection<File> files, final boolean proper) {
+        List<Future<Long>> sizes = new ArrayList<Future<Long>>(files.size());
+        for (final File file : files) {
+            sizes.add(submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return Long.valueOf(minifiedSize(file, proper));
+                }
+            }));
+        }
+        return sizes;
+    }
+
+    private long minifiedSize(File file, boolean proper) throws IOException {
+        Minifier compressor = createMinifier(proper);
+        List<File> files = Collections.singletonList(file);
+        String key = null;
+        if (cache != null) {
+            key = CompressionCache.key("js", files, compressor.getOptionsFingerprint(), String.valueOf(proper), "false", charset.name());
+            String cached = cache.get(key);
+            if (cached != null) {
+                return cached.getBytes(charset.name()).length;
+            }
+        }
+        try {
+            String compressed = compressor.compress(files, false);
+            if (cache != null) {
+                cache.put(key, compressed);
+            }
+            return compressed.getBytes(charset.name()).length;
+        } catch (MojoFailureException e) {
+            return -1;
+        }
+    }
 
     /**
-     * Target path for the Javascript bundle.
-     *
-     * @parameter expression="${project.build.directory}/dist/dist.js"
+     * @param proper true for the application local files, false for the external libraries
+     * @return the minifier configured for the files
      */
-    private File jsTarget;
+    private Minifier createMinifier(boolean proper) {
+        String engine = proper ? applicationMinifier : libraryMinifier;
+        if ("yui".equals(engine)) {
+            return new YuiMinifier(proper, charset, getLog());
+        } else if ("strip".equals(engine)) {
+            return new StripMinifier(proper, charset);
+        }
+        return new JSCompressor(proper, charset, getLog());
+    }
+
+    private SizeAnalyzer.FileSize fileSize(File file, String group, long minified, long sourceSize, long bundleSize) {
+        boolean estimated = minified < 0;
+        if (estimated) {
+            // Couldn't be compressed alone; assume it compresses as well as the bundle does
+            minified = sourceSize > 0 ? Math.round(file.length() * (double) bundleSize / sourceSize) : 0;
+        }
+        LinkedList<File> chain = new LinkedList<File>();
+        Set<File> seen = new HashSet<File>();
+        File requirer = requiredBy.get(file);
+        while (requirer != null && seen.add(requirer)) {
+            chain.addFirst(requirer);
+            requirer = requiredBy.get(requirer);
+        }
+        return new SizeAnalyzer.FileSize(file, group, file.length(), minified, estimated, chain);
+    }
 
     /**
-     * Target path for the CSS bundle.
-     *
-     * @parameter expression="${project.build.directory}/dist/dist.css"
+     * Name the group a file's size is counted under: its directory within
+     * the OpenLayers tree, application for application Javascript,
+     * libraries for other Javascript and stylesheets for everything else.
      */
-    private File cssTarget;
+    private String groupOf(File file, boolean app) {
+        if (!app && openLayersBase != null) {
+            String path = file.getAbsolutePath();
+            String base = openLayersBase.getAbsolutePath() + File.separator;
+            if (path.startsWith(base)) {
+                int slash = path.lastIndexOf(File.separatorChar);
+                return slash < base.length() ? "OpenLayers" : path.substring(base.length(), slash).replace(File.separatorChar, '/');
+            }
+        }
+        if (!file.getName().endsWith(".js")) {
+            return "stylesheets";
+        }
+        return app ? "application" : "libraries";
+    }
 
     /**
-     * Whether to compress the JS and CSS files.
-     *
-     * @parameter expression=true
+     * Remember which file first required each file reachable from a set
+     * of start files, so the size analysis can show why a file is in.
      */
-    private boolean compress;
+    private void recordRequirers(DependencyGraph graph, Collection<File> starts) throws IOException {
+        LinkedList<File> queue = new LinkedList<File>(starts);
+        Set<File> seen = new HashSet<File>(starts);
+        while (!queue.isEmpty()) {
+            File file = queue.removeFirst();
+            for (File dep : graph.getDependencies(file)) {
+                if (seen.add(dep)) {
+                    if (!requiredBy.containsKey(dep) && !starts.contains(dep)) {
+                        requiredBy.put(dep, file);
+                    }
+                    queue.add(dep);
+                }
+            }
+        }
+    }
 
     /**
-     * If true, warnings in app local code are treated as errors.
-     *
-     * @parameter expression=true
+     * The Javascript files making up the bundle, split into external libraries and application local files.
      */
-    private boolean failOnWarn;
+    static class JSFiles {
+        final Collection<File> libs;
+        final Collection<File> app;
 
-    private void compressJS(Collection<File> extJs, Collection<File> localJs, Writer out) throws IOException, MojoExecutionException, MojoFailureException {
-        if (compress) {
-            getLog().info("Compressing external libraries...");
-            JSCompressor compressor = new JSCompressor(false);
-            out.write(compressor.compress(extJs, false));
-            getLog().info("Compressing application local files...");
-            compressor = new JSCompressor(true);
-            out.write(compressor.compress(localJs, failOnWarn));
-        } else {
-            Collection<File> js = new ArrayList<File>();
-            js.addAll(extJs);
-            js.addAll(localJs);
-            out.write(readFileList(js).toString());
+        JSFiles(Collection<File> libs, Collection<File> app) {
+            this.libs = libs;
+            this.app = app;
+        }
+
+        Collection<File> all() {
+            LinkedHashSet<File> all = new LinkedHashSet<File>(libs);
+            all.addAll(app);
+            return all;
         }
     }
 
-    private void compressCSS(String css, Writer out) throws IOException {
-        if (compress) {
-            CssCompressor c = new CssCompressor(new StringReader(css));
-            c.compress(out, -1);
-        } else {
-            out.write(css);
+    /**
+     * @return the Javascript bundle's files and the files its OpenLayers dependencies are taken from
+     */
+    static Collection<File> jsInputs(JSFiles js, Collection<File> deps) {
+        Collection<File> inputs = js.all();
+        inputs.addAll(deps);
+        return inputs;
+    }
+
+    /**
+     * Prepare shared build state: the cache, the charset and the executor.
+     *
+     * @throws MojoExecutionException on error
+     */
+    void setUp() throws MojoExecutionException {
+        report = new BuildReport();
+        buildStarted = System.currentTimeMillis();
+        cache = useCache ? new CompressionCache(cacheDirectory) : null;
+        try {
+            charset = encoding != null ? Charset.forName(encoding) : Charset.forName("UTF-8");
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("Unsupported encoding: " + encoding);
+        }
+        measureFiles = analyseSizes;
+        if (budgets != null) {
+            for (Budget budget : budgets) {
+                measureFiles |= !budget.isBundle();
+            }
+        }
+        if (measureFiles || (budgets != null && budgets.length > 0)) {
+            analyzer = new SizeAnalyzer(manifestRoot != null ? manifestRoot : manifest.getAbsoluteFile().getParentFile());
+        }
+        if (libraryMinifier == null) {
+            libraryMinifier = "closure";
+        }
+        if (applicationMinifier == null) {
+            applicationMinifier = "closure";
+        }
+        for (String engine : new String[] { libraryMinifier, applicationMinifier }) {
+            if (!MINIFIERS.contains(engine)) {
+                throw new MojoExecutionException("Unknown minifier " + engine + ", expected one of " + MINIFIERS);
+            }
+        }
+        if (gzip && (gzipLevel < 1 || gzipLevel > 9)) {
+            throw new MojoExecutionException("gzipLevel must be from 1 to 9, got " + gzipLevel);
+        }
+        inliner = inlineAssets ? new DataUriInliner(inlineAssetLimit) : null;
+        hashChars = hashLength > 0 ? Math.min(hashLength, 40) : 8;
+        threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        if (parallel) {
+            getLog().info("Compressing in parallel using " + threadCount + " threads");
+            executor = Executors.newFixedThreadPool(threadCount);
+        }
+        if (gzip) {
+            gzipExecutor = executor != null ? executor : Executors.newFixedThreadPool(threadCount);
+        }
+        // Scanning for @requires is mostly file reads, so it runs concurrently even outside parallel mode
+        if (executor != null) {
+            scanExecutor = executor;
+        } else if (threadCount > 1) {
+            scanExecutor = Executors.newFixedThreadPool(threadCount);
+        }
+    }
+
+    /**
+     * Release shared build state.
+     */
+    void tearDown() {
+        if (cache != null) {
+            int pruned = cache.prune(maxCacheEntries);
+            if (pruned > 0) {
+                getLog().debug("Pruned " + pruned + " old cache entries");
+            }
+        }
+        if (gzipExecutor != null && gzipExecutor != executor) {
+            gzipExecutor.shutdownNow();
+        }
+        gzipExecutor = null;
+        if (scanExecutor != null && scanExecutor != executor) {
+            scanExecutor.shutdownNow();
+        }
+        scanExecutor = null;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
         }
     }
 
-    private StringBuffer readFileList(Collection<File> fileList) throws MojoExecutionException {
-        StringBuffer data = new StringBuffer();
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        setUp();
         try {
-            for (File file : fileList) {
-                BufferedReader reader;
+            build();
+        } finally {
+            tearDown();
+        }
+        report.summarise(getLog());
+        if (analyzer != null) {
+            analyzer.summarise(getLog(), 5);
+            if (sizeReport != null) {
                 try {
-                    reader = new BufferedReader(new FileReader(file));
-                } catch (FileNotFoundException e) {
-                    throw new MojoExecutionException(e.getMessage());
+                    Json.write(sizeReport, analyzer.toMap());
+                } catch (IOException e) {
+                    getLog().warn("Unable to write size report: " + e.getMessage());
                 }
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    data.append(line);
-                    data.append("\n");
+            }
+        }
+        if (pruneUnusedFiles && pruneReport != null) {
+            try {
+                Json.write(pruneReport, pruned);
+            } catch (IOException e) {
+                getLog().warn("Unable to write prune report: " + e.getMessage());
+            }
+        }
+        if (reportFile != null) {
+            try {
+                report.write(reportFile);
+            } catch (IOException e) {
+                getLog().warn("Unable to write build report: " + e.getMessage());
+            }
+        }
+        if (analyzer != null && budgets != null) {
+            List<String> exceeded = analyzer.checkBudgets(budgets);
+            if (!exceeded.isEmpty()) {
+                for (String message : exceeded) {
+                    getLog().error(message);
                 }
+                throw new MojoFailureException("Size budgets exceeded: " + exceeded);
             }
-        } catch (IOException e) {
-            throw new MojoExecutionException(e.getMessage());
         }
-        return data;
     }
 
-    private String buildJSOutput(Collection<File> extJs, Collection<File> localJs) throws MojoExecutionException, MojoFailureException {
-        StringBuffer data = readFileList(extJs);
-        data.append(readFileList(localJs));
-        try {
-            StringWriter writer = new StringWriter();
-            getLog().info("Compressing concatenated Javascript (source is " + data.length() + " bytes)");
-            compressJS(extJs, localJs, writer);
-            getLog().info("Compressed to " + writer.getBuffer().length() + " bytes (" + String.format("%.2f", (writer.getBuffer().length() * 100.0) / data.length()) + "%)");
-            return writer.getBuffer().toString();
-        } catch (IOException e) {
-            throw new MojoExecutionException(e.getMessage());
+    File getManifestFile() {
+        return manifest;
+    }
+
+    /**
+     * Fail if settings only the package goal can build are configured, for
+     * goals building just the jsTarget and cssTarget bundles.
+     *
+     * @param goal name of the goal, for the error message
+     * @throws MojoExecutionException if any are configured
+     */
+    void checkSingleBundle(String goal) throws MojoExecutionException {
+        if (deferred != null && deferred.length > 0) {
+            throw new MojoExecutionException("Deferred parts can't be used with the " + goal + " goal");
+        }
+        if (variants != null && variants.length > 0) {
+            throw new MojoExecutionException("Variants can't be used with the " + goal + " goal");
         }
     }
 
-    private String buildCSSOutput(Collection<File> cssFileList) throws MojoExecutionException {
-        StringBuffer data = readFileList(cssFileList);
-        try {
-            StringWriter writer = new StringWriter();
-            getLog().info("Compressing concatenated CSS (source is " + data.length() + " bytes)");
-            compressCSS(data.toString(), writer);
-            getLog().info("Compressed to " + writer.getBuffer().length() + " bytes (" + String.format("%.2f", (writer.getBuffer().length() * 100.0) / data.length()) + "%)");
-            return writer.getBuffer().toString();
-        } catch (IOException e) {
-            throw new MojoExecutionException(e.getMessage());
+    /**
+     * Keep compressed output in memory between builds, keyed by input file list.
+     * Entries must be dropped with {@link #forget(Manifest, Collection)} when their inputs change.
+     */
+    void keepInMemory() {
+        memory = new HashMap<List<File>, String>();
+    }
+
+    /**
+     * Drop everything known about a set of changed files: their parsed
+     * dependencies and any in-memory compressed output they're part of.
+     *
+     * @param m the manifest whose dependency graph should be updated
+     * @param changed changed files
+     */
+    void forget(Manifest m, Collection<File> changed) {
+        if (openLayersBase != null) {
+            m.getDependencyGraph(openLayersBase).forget(changed);
+        }
+        if (memory != null) {
+            synchronized (memory) {
+                Iterator<List<File>> keys = memory.keySet().iterator();
+                while (keys.hasNext()) {
+                    if (!Collections.disjoint(keys.next(), changed)) {
+                        keys.remove();
+                    }
+                }
+            }
         }
     }
 
-    public void execute() throws MojoExecutionException, MojoFailureException {
+    /**
+     * Keep bundles in memory instead of writing them to disk. Gzipped
+     * siblings and hashed filenames are left out in this mode.
+     */
+    void keepOutputsInMemory() {
+        outputs = new ConcurrentHashMap<File, byte[]>();
+    }
+
+    /**
+     * @param target a bundle target file
+     * @return the last bundle built for the target, if outputs are kept in memory
+     */
+    byte[] getOutput(File target) {
+        return outputs != null ? outputs.get(target.getAbsoluteFile()) : null;
+    }
+
+    File getJsTarget() {
+        return jsTarget;
+    }
+
+    File getCssTarget() {
+        return cssTarget;
+    }
+
+    File getOpenLayersBase() {
+        return openLayersBase;
+    }
+
+    /**
+     * @return the directory application file paths are relative to
+     */
+    File getManifestRoot() {
+        return manifestRoot != null ? manifestRoot : manifest.getAbsoluteFile().getParentFile();
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    Manifest createManifest() throws MojoExecutionException {
         getLog().info("Reading manifest: " + manifest.toString());
         Manifest m = new Manifest(manifest, manifestRoot);
+        m.setRequiresScanner(new RequiresScanner(headerOnlyRequires));
+        m.setExecutor(scanExecutor);
+        m.setCharset(charset);
+        long start = System.nanoTime();
+        m.load();
+        report.time(BuildReport.MANIFEST, start);
+        return m;
+    }
+
+    JSFiles resolveJSFiles(Manifest m) throws MojoExecutionException, MojoFailureException {
+        if (manifestJsFields == null) {
+            throw new MojoExecutionException("No manifestJsFields configured");
+        }
+        return resolveJSFiles(m, manifestDepsFields, manifestJsFields);
+    }
 
-        Collection<File> depsFileList = m.buildFileList(manifestDepsFields);
+    JSFiles resolveJSFiles(Manifest m, String[] depsFields, String[] jsFields) throws MojoExecutionException, MojoFailureException {
+        Collection<File> depsFileList = depsFields != null ? m.buildFileList(depsFields) : new ArrayList<File>(0);
         LinkedHashSet<File> openLayersFiles = new LinkedHashSet<File>();
         if (openLayersBase != null) {
             getLog().info("Building OpenLayers...");
@@ -204,7 +1589,21 @@ public class Packager extends AbstractMojo {
                 deps.addAll(first);
                 deps.addAll(depsFileList);
                 openLayersFiles.addAll(first);
-                openLayersFiles.addAll(m.buildDependencyTree(deps, openLayersBase));
+                DependencyGraph graph = m.getDependencyGraph(openLayersBase);
+                loadIndex(graph);
+                long start = System.nanoTime();
+                Collection<File> unsorted = graph.resolve(deps, false);
+                report.time(BuildReport.SCAN, start);
+                if (measureFiles) {
+                    recordRequirers(graph, deps);
+                }
+                start = System.nanoTime();
+                List<File> sorted = graph.sort(unsorted);
+                report.time(BuildReport.SORT, start);
+                if (pruneUnusedFiles) {
+                    sorted = prune(sorted, depsFileList, first);
+                }
+                openLayersFiles.addAll(sorted);
             } catch (IOException e) {
                 throw new MojoFailureException(e.getMessage());
             }
@@ -212,40 +1611,285 @@ public class Packager extends AbstractMojo {
 
         LinkedHashSet<File> jsFileList = new LinkedHashSet<File>();
         jsFileList.addAll(openLayersFiles);
-        jsFileList.addAll(m.buildFileList(manifestJsFields));
+        jsFileList.addAll(m.buildFileList(jsFields));
         LinkedHashSet<File> libsList = new LinkedHashSet<File>();
         libsList.addAll(jsFileList);
         libsList.removeAll(depsFileList);
         LinkedHashSet<File> appList = new LinkedHashSet<File>();
         appList.addAll(jsFileList);
         appList.removeAll(libsList);
-        getLog().info("Concatenating " + jsFileList.size() + " files...");
-        String concatenatedJS = buildJSOutput(libsList, appList);
-        getLog().info("Writing compressed Javascript data to " + jsTarget.toString());
-        jsTarget.getParentFile().getAbsoluteFile().mkdirs();
+        return new JSFiles(libsList, appList);
+    }
+
+    /**
+     * Build a bundle for each entrypoint, with files used by several
+     * entrypoints split out into shared chunks, and write a listing of the
+     * chunks each entrypoint needs to entrypoints.json.
+     *
+     * @param m the manifest
+     * @throws MojoExecutionException on error
+     * @throws MojoFailureException on failure
+     */
+    void buildEntrypoints(Manifest m) throws MojoExecutionException, MojoFailureException {
+        Map<String, Collection<File>> files = new LinkedHashMap<String, Collection<File>>();
+        Set<File> appFiles = new HashSet<File>();
+        for (Entrypoint entrypoint : entrypoints) {
+            if (entrypoint.getName() == null || entrypoint.getManifestJsFields() == null) {
+                throw new MojoExecutionException("Entrypoints need a name and manifestJsFields");
+            }
+            if (files.containsKey(entrypoint.getName())) {
+                throw new MojoExecutionException("Duplicate entrypoint name: " + entrypoint.getName());
+            }
+            if (entrypoint.getName().startsWith(ChunkSplitter.SHARED_PREFIX)) {
+                throw new MojoExecutionException("Entrypoint names can't start with " + ChunkSplitter.SHARED_PREFIX + ": " + entrypoint.getName());
+            }
+            JSFiles js = resolveJSFiles(m, entrypoint.getManifestDepsFields(), entrypoint.getManifestJsFields());
+            files.put(entrypoint.getName(), js.all());
+            appFiles.addAll(js.app);
+        }
+
+        ChunkSplitter splitter = new ChunkSplitter(files);
+        Map<ChunkSplitter.Chunk, String> chunkFiles = new HashMap<ChunkSplitter.Chunk, String>();
+        for (ChunkSplitter.Chunk chunk : splitter.getChunks()) {
+            List<File> libs = new ArrayList<File>();
+            List<File> app = new ArrayList<File>();
+            for (File file : chunk.getFiles()) {
+                (appFiles.contains(file) ? app : libs).add(file);
+            }
+            getLog().info("Building chunk " + chunk.getName() + " (" + chunk.getFiles().size() + " files, used by " + chunk.getEntrypoints() + ")");
+            File written = buildJSOutput(libs, app, new File(entrypointDirectory, chunk.getName() + ".js"));
+            chunkFiles.put(chunk, written.getName());
+        }
+
+        Map<String, List<String>> listing = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, List<ChunkSplitter.Chunk>> entry : splitter.getChunksByEntrypoint().entrySet()) {
+            List<String> names = new ArrayList<String>();
+            for (ChunkSplitter.Chunk chunk : entry.getValue()) {
+                names.add(chunkFiles.get(chunk));
+            }
+            listing.put(entry.getKey(), names);
+        }
+        writeTextFile(new File(entrypointDirectory, "entrypoints.json"), Json.write(listing) + "\n");
+    }
+
+    /**
+     * Write a small text file, leaving it untouched if its content hasn't changed.
+     *
+     * @param target file to write
+     * @param text content
+     * @throws MojoExecutionException on error
+     */
+    void writeTextFile(File target, String text) throws MojoExecutionException {
+        AtomicOutputFile output = null;
         try {
-            jsTarget.createNewFile();
-            FileWriter out = new FileWriter(jsTarget);
-            out.write(concatenatedJS);
-            out.flush();
+            output = new AtomicOutputFile(target);
+            output.getStream().write(text.getBytes(charset.name()));
+            commitOutput(output);
+            output = null;
         } catch (IOException e) {
-            throw new MojoFailureException(e.getMessage());
+            throw new MojoExecutionException(e.getMessage());
+        } finally {
+            if (output != null) {
+                output.abort();
+            }
         }
+    }
 
-        Collection<File> cssFileList = m.buildFileList(manifestCssFields);
-        getLog().info("Concatenating " + cssFileList.size() + " files...");
-        String concatenatedCSS = buildCSSOutput(cssFileList);
-        getLog().info("Writing compressed CSS data to " + cssTarget.toString());
-        cssTarget.getParentFile().getAbsoluteFile().mkdirs();
+    private void loadIndex(DependencyGraph graph) {
+        if (!useDependencyIndex || dependencyIndexDirectory == null || graph == indexedGraph) {
+            return;
+        }
+        indexedGraph = graph;
+        String scannerId = "headerOnly=" + headerOnlyRequires;
+        String name = CompressionCache.key("index", openLayersBase.getAbsolutePath(), scannerId);
+        index = new DependencyIndex(new File(dependencyIndexDirectory, name + ".idx"), openLayersBase, scannerId);
+        long start = System.nanoTime();
         try {
-            cssTarget.createNewFile();
-            FileWriter out = new FileWriter(cssTarget);
-            out.write(concatenatedCSS);
-            out.flush();
+            Map<File, Collection<File>> known = index.load();
+            graph.preload(known);
+            getLog().info("Using " + known.size() + " files from the dependency index ("
+                + index.getStale() + " stale, " + index.getRehashed() + " checked by content)");
+            report.count("indexedFiles", known.size());
         } catch (IOException e) {
-            throw new MojoFailureException(e.getMessage());
+            getLog().warn("Unable to read dependency index: " + e.getMessage());
         }
+        report.time(BuildReport.INDEX, start);
     }
 
-}
+    /**
+     * Write the dependency index, if one is in use.
+     */
+    void saveIndex() {
+        if (index == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            index.save(indexedGraph.getEdges(), buildStarted);
+        } catch (IOException e) {
+            getLog().warn("Unable to write dependency index: " + e.getMessage());
+        }
+        report.time(BuildReport.INDEX, start);
+    }
+
+    private List<File> prune(List<File> libraries, Collection<File> application, Collection<File> first) {
+        if (pruner == null) {
+            pruner = new SymbolPruner("OpenLayers", charset);
+        }
+        Set<File> keep = new HashSet<File>(first);
+        if (pruneKeep != null) {
+            keep.addAll(Manifest.resolveFileNames(Arrays.asList(pruneKeep), openLayersBase));
+        }
+        long start = System.nanoTime();
+        SymbolPruner.Result result = pruner.prune(libraries, application, keep);
+        report.time(BuildReport.PRUNE, start);
+        getLog().info("Pruned " + result.getRemoved().size() + " unused OpenLayers files, keeping " + result.getKept().size());
+        for (Map.Entry<File, String> removed : result.getRemoved().entrySet()) {
+            getLog().debug("Pruned " + removed.getKey() + ": " + removed.getValue());
+            synchronized (pruned) {
+                pruned.put(removed.getKey().getPath(), removed.getValue());
+            }
+        }
+        report.count("prunedFiles", result.getRemoved().size());
+        return result.getKept();
+    }
+
+    /**
+     * @return the files checked for OpenLayers dependencies, which aren't
+     *         necessarily part of the Javascript bundle themselves
+     */
+    Collection<File> resolveDepsFiles(Manifest m) throws MojoExecutionException {
+        return manifestDepsFields != null ? m.buildFileList(manifestDepsFields) : new ArrayList<File>(0);
+    }
+
+    Collection<File> resolveCSSFiles(Manifest m) throws MojoExecutionException {
+        return m.buildFileList(manifestCssFields);
+    }
+
+    void buildJS(JSFiles js) throws MojoExecutionException, MojoFailureException {
+        getLog().info("Concatenating " + (js.libs.size() + js.app.size()) + " files...");
+        buildJSOutput(js.libs, js.app, jsTarget);
+    }
+
+    void buildCSS(Collection<File> cssFileList) throws MojoExecutionException, MojoFailureException {
+        getLog().info("Concatenating " + cssFileList.size() + " files...");
+        buildCSSOutput(cssFileList, compressCSSFiles(cssFileList), cssTarget);
+    }
 
+    private void build() throws MojoExecutionException, MojoFailureException {
+        Manifest m = createManifest();
+        if (variants != null && variants.length > 0) {
+            if (entrypoints != null && entrypoints.length > 0) {
+                throw new MojoExecutionException("Variants and entrypoints can't be used together");
+            }
+            Set<String> names = new HashSet<String>();
+            for (Variant variant : variants) {
+                if (variant.getName() == null || !names.add(variant.getName())) {
+                    throw new MojoExecutionException("Variants need a unique name");
+                }
+                for (String engine : new String[] { variant.getLibraryMinifier(), variant.getApplicationMinifier() }) {
+                    if (engine != null && !MINIFIERS.contains(engine)) {
+                        throw new MojoExecutionException("Unknown minifier " + engine + " in variant " + variant.getName());
+                    }
+                }
+            }
+            for (Variant variant : variants) {
+                buildVariant(m, variant);
+            }
+        } else {
+            buildBundles(m);
+        }
+        writeAssetManifest();
+        saveIndex();
+    }
+
+    /**
+     * Build a variant, by swapping its settings in for the plugin's own
+     * while it builds. The manifest, its dependency graph and the
+     * compressed output of any file set already compressed the same way
+     * are reused from the variants built before it.
+     */
+    private void buildVariant(Manifest m, Variant variant) throws MojoExecutionException, MojoFailureException {
+        getLog().info("Building variant " + variant.getName());
+        String[] depsFields = manifestDepsFields;
+        String[] jsFields = manifestJsFields;
+        String[] cssFields = manifestCssFields;
+        File js = jsTarget;
+        File css = cssTarget;
+        boolean compressed = compress;
+        boolean strict = failOnWarn;
+        String libraryEngine = libraryMinifier;
+        String applicationEngine = applicationMinifier;
+        variantName = variant.getName();
+        try {
+            if (variant.getManifestDepsFields() != null) {
+                manifestDepsFields = variant.getManifestDepsFields();
+            }
+            if (variant.getManifestJsFields() != null) {
+                manifestJsFields = variant.getManifestJsFields();
+            }
+            if (variant.getManifestCssFields() != null) {
+                manifestCssFields = variant.getManifestCssFields();
+            }
+            jsTarget = variant.getJsTarget() != null ? variant.getJsTarget() : variantTarget(js, variant.getName());
+            cssTarget = variant.getCssTarget() != null ? variant.getCssTarget() : variantTarget(css, variant.getName());
+            if (variant.getCompress() != null) {
+                compress = variant.getCompress().booleanValue();
+            }
+            if (variant.getFailOnWarn() != null) {
+                failOnWarn = variant.getFailOnWarn().booleanValue();
+            }
+            if (variant.getLibraryMinifier() != null) {
+                libraryMinifier = variant.getLibraryMinifier();
+            }
+            if (variant.getApplicationMinifier() != null) {
+                applicationMinifier = variant.getApplicationMinifier();
+            }
+            buildBundles(m);
+        } finally {
+            manifestDepsFields = depsFields;
+            manifestJsFields = jsFields;
+            manifestCssFields = cssFields;
+            jsTarget = js;
+            cssTarget = css;
+            compress = compressed;
+            failOnWarn = strict;
+            libraryMinifier = libraryEngine;
+            applicationMinifier = applicationEngine;
+            variantName = null;
+        }
+    }
+
+    static File variantTarget(File target, String name) {
+        String fileName = target.getName();
+        int dot = fileName.lastIndexOf('.');
+        String variantName = dot > 0 ? fileName.substring(0, dot) + "-" + name + fileName.substring(dot) : fileName + "-" + name;
+        return new File(target.getParentFile(), variantName);
+    }
+
+    private void buildBundles(Manifest m) throws MojoExecutionException, MojoFailureException {
+        JSFiles js = entrypoints != null && entrypoints.length > 0 ? null : resolveJSFiles(m);
+        if (js == null && deferred != null && deferred.length > 0) {
+            throw new MojoExecutionException("Deferred parts and entrypoints can't be used together");
+        }
+        Collection<File> cssFileList = resolveCSSFiles(m);
+        // Get the CSS files compressing first, so they can run alongside the Javascript in parallel mode
+        getLog().info("Concatenating " + cssFileList.size() + " files...");
+        List<Future<String>> cssParts = compressCSSFiles(cssFileList);
+        if (js != null && deferred != null && deferred.length > 0) {
+            // The deferred parts go first, so the loader knows what they ended up being called
+            String loader = buildDeferred(m, js);
+            if (compress) {
+                loader = StripMinifier.strip(loader) + "\n";
+            }
+            getLog().info("Concatenating " + (js.libs.size() + js.app.size()) + " files...");
+            buildJSOutput(js.libs, js.app, jsTarget, loader);
+        } else if (js != null) {
+            buildJS(js);
+        } else {
+            buildEntrypoints(m);
+        }
+        buildCSSOutput(cssFileList, cssParts, cssTarget);
+    }
+
+}
@@ -0,0 +1,194 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream that deflates fixed size blocks concurrently, in the
+ * manner of pigz. Each block is primed with the last 32 KB of the block
+ * before it and ends on a sync flush, so the blocks join up into a single
+ * ordinary deflate stream.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final CRC32 crc = new CRC32();
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private byte[] dictionary = null;
+    private long size = 0;
+    private long written = 0;
+    private boolean finished = false;
+
+    /**
+     * Constructor. Writes the gzip header immediately.
+     *
+     * @param out stream to write compressed data to; it is not closed by this stream
+     * @param level compression level, 0-9
+     * @param executor executor to compress blocks on, or null to compress them on the calling thread
+     * @param threads number of blocks to keep in flight
+     * @throws IOException on IO error
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, ExecutorService executor, int threads) throws IOException {
+        this.out = out;
+        this.level = level;
+        this.executor = executor;
+        this.maxPending = Math.max(2, threads * 2);
+        // Magic, deflate, no flags, no mtime (so identical input gives identical output), no extra flags, unknown OS
+        byte[] header = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+        writeOut(header);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+        crc.update(data, offset, length);
+        size += length;
+        while (length > 0) {
+            int n = Math.min(length, block.length - blockLength);
+            System.arraycopy(data, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            length -= n;
+            if (blockLength == block.length) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    private void submitBlock(final boolean last) throws IOException {
+        final byte[] input = block;
+        final int inputLength = blockLength;
+        final byte[] dict = dictionary;
+        if (inputLength >= DICTIONARY_SIZE) {
+            dictionary = new byte[DICTIONARY_SIZE];
+            System.arraycopy(input, inputLength - DICTIONARY_SIZE, dictionary, 0, DICTIONARY_SIZE);
+        }
+        Callable<byte[]> task = new Callable<byte[]>() {
+            public byte[] call() {
+                return deflate(input, inputLength, dict, level, last);
+            }
+        };
+        Future<byte[]> future;
+        if (executor != null) {
+            future = executor.submit(task);
+        } else {
+            FutureTask<byte[]> inline = new FutureTask<byte[]>(task);
+            inline.run();
+            future = inline;
+        }
+        pending.add(future);
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+        while (pending.size() >= maxPending) {
+            drainOne();
+        }
+    }
+
+    private static byte[] deflate(byte[] input, int length, byte[] dictionary, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void drainOne() throws IOException {
+        Future<byte[]> future = pending.removeFirst();
+        try {
+            writeOut(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            IOException io = new IOException("Compression failed: " + e.getCause());
+            io.initCause(e.getCause());
+            throw io;
+        }
+    }
+
+    private void writeOut(byte[] data) throws IOException {
+        out.write(data);
+        written += data.length;
+    }
+
+    /**
+     * Compress any remaining data and write the gzip trailer. The underlying stream is flushed but not closed.
+     *
+     * @throws IOException on IO error
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        submitBlock(true);
+        while (!pending.isEmpty()) {
+            drainOne();
+        }
+        finished = true;
+        long checksum = crc.getValue();
+        byte[] trailer = new byte[8];
+        for (int i = 0; i < 4; i++) {
+            trailer[i] = (byte) (checksum >> (8 * i));
+            trailer[4 + i] = (byte) (size >> (8 * i));
+        }
+        writeOut(trailer);
+        out.flush();
+    }
+
+    /**
+     * @return number of compressed bytes written so far, including header and trailer
+     */
+    public long getCompressedSize() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+}
@@ -0,0 +1,247 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Scanner for @requires directives.
+ *
+ * Works directly on bytes, and can optionally stop at the end of the
+ * leading comment block of a file instead of reading all of it.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class RequiresScanner {
+    private static final byte[] DIRECTIVE = { '@', 'r', 'e', 'q', 'u', 'i', 'r', 'e', 's' };
+
+    private final boolean headerOnly;
+
+    /**
+     * Constructor.
+     *
+     * @param headerOnly stop scanning at the first line that isn't blank or part of a comment
+     */
+    public RequiresScanner(boolean headerOnly) {
+        this.headerOnly = headerOnly;
+    }
+
+    /**
+     * @return true if scanning stops after the leading comment block
+     */
+    public boolean isHeaderOnly() {
+        return headerOnly;
+    }
+
+    /**
+     * Scan a file for dependencies.
+     *
+     * @param file file to scan
+     * @return dependencies in the order they are declared
+     * @throws IOException on IO error
+     */
+    public Collection<String> scan(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return scan(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Scan a stream for dependencies. The stream is not closed.
+     *
+     * @param in stream to scan
+     * @return dependencies in the order they are declared
+     * @throws IOException on IO error
+     */
+    public Collection<String> scan(InputStream in) throws IOException {
+        Scan scan = new Scan();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (!scan.feed(buffer, read)) {
+                return scan.deps;
+            }
+        }
+        scan.endLine();
+        return scan.deps;
+    }
+
+    /**
+     * Scan a list of files, using an executor to scan them concurrently if one is given.
+     *
+     * @param files files to scan
+     * @param executor executor to run scans on, or null to scan sequentially
+     * @return the dependencies of each file, in the same order as the files
+     * @throws IOException on IO error
+     */
+    public List<Collection<String>> scanAll(List<File> files, ExecutorService executor) throws IOException {
+        List<Collection<String>> results = new ArrayList<Collection<String>>(files.size());
+        if (executor == null || files.size() < 2) {
+            for (File file : files) {
+                results.add(scan(file));
+            }
+            return results;
+        }
+        List<Future<Collection<String>>> futures = new ArrayList<Future<Collection<String>>>(files.size());
+        for (final File file : files) {
+            futures.add(executor.submit(new Callable<Collection<String>>() {
+                public Collection<String> call() throws IOException {
+                    return scan(file);
+                }
+            }));
+        }
+        try {
+            for (Future<Collection<String>> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning dependencies");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<Collection<String>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * State of a single scan.
+     */
+    private class Scan {
+        final LinkedHashSet<String> deps = new LinkedHashSet<String>();
+        byte[] line = new byte[256];
+        int length = 0;
+        boolean inComment = false;
+        boolean firstLine = true;
+
+        /**
+         * @return false if the scan is finished
+         */
+        boolean feed(byte[] buffer, int count) {
+            for (int i = 0; i < count; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    if (!endLine()) {
+                        return false;
+                    }
+                } else {
+                    if (length == line.length) {
+                        byte[] grown = new byte[line.length * 2];
+                        System.arraycopy(line, 0, grown, 0, length);
+                        line = grown;
+                    }
+                    line[length++] = b;
+                }
+            }
+            return true;
+        }
+
+        boolean endLine() {
+            boolean more = processLine();
+            length = 0;
+            firstLine = false;
+            return more;
+        }
+
+        private boolean processLine() {
+            if (!headerOnly) {
+                match();
+                return true;
+            }
+            if (inComment) {
+                match();
+                if (indexOf('*', '/', 0) >= 0) {
+                    inComment = false;
+                }
+                return true;
+            }
+            int start = 0;
+            if (firstLine && length >= 3 && line[0] == (byte) 0xef && line[1] == (byte) 0xbb && line[2] == (byte) 0xbf) {
+                start = 3;
+            }
+            while (start < length && (line[start] == ' ' || line[start] == '\t' || line[start] == '\f')) {
+                start++;
+            }
+            if (start == length) {
+                return true;
+            }
+            if (start + 1 < length && line[start] == '/' && line[start + 1] == '/') {
+                match();
+                return true;
+            }
+            if (start + 1 < length && line[start] == '/' && line[start + 1] == '*') {
+                match();
+                inComment = indexOf('*', '/', start + 2) < 0;
+                return true;
+            }
+            return false;
+        }
+
+        private int indexOf(char a, char b, int from) {
+            for (int i = from; i + 1 < length; i++) {
+                if (line[i] == a && line[i + 1] == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Match "@requires +(.+)$" against the line, taking the last
+         * possible match like a greedy ".*" prefix would.
+         */
+        private void match() {
+            for (int i = length - DIRECTIVE.length - 2; i >= 0; i--) {
+                if (!directiveAt(i)) {
+                    continue;
+                }
+                int spaces = i + DIRECTIVE.length;
+                if (line[spaces] != ' ') {
+                    continue;
+                }
+                int name = spaces;
+                while (name < length && line[name] == ' ') {
+                    name++;
+                }
+                if (name == length) {
+                    // Only spaces follow; the last one is all that's left for the name
+                    name = length - 1;
+                }
+                try {
+                    deps.add(new String(line, name, length - name, "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+                return;
+            }
+        }
+
+        private boolean directiveAt(int offset) {
+            for (int i = 0; i < DIRECTIVE.length; i++) {
+                if (line[offset + i] != DIRECTIVE[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Compressed output shared by every build running in the same JVM, so
+ * modules of a parallel reactor build which package the same library
+ * files only compress them once. A build asking for output another build
+ * is still producing waits for it rather than starting over.
+ *
+ * Only the most recently used entries are kept, to bound the memory held
+ * by long running JVMs.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class SharedOutputs {
+    static final int MAX_ENTRIES = 16;
+
+    private static final Map<String, Future<String>> outputs = new LinkedHashMap<String, Future<String>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Future<String>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private SharedOutputs() {
+    }
+
+    /**
+     * Get the output for a key, producing it on the calling thread if no
+     * other build has produced or is producing it. Failed outputs aren't
+     * kept, so a later build will try again.
+     *
+     * @param key key identifying the inputs and settings of the output
+     * @param producer task producing the output
+     * @return the output, which is complete unless another thread is still producing it
+     */
+    public static Future<String> get(String key, Callable<String> producer) {
+        FutureTask<String> task = null;
+        Future<String> output;
+        synchronized (outputs) {
+            output = outputs.get(key);
+            if (output == null) {
+                task = new FutureTask<String>(producer);
+                outputs.put(key, task);
+                output = task;
+            }
+        }
+        if (task != null) {
+            task.run();
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                remove(key, task);
+            } catch (ExecutionException e) {
+                remove(key, task);
+            }
+        }
+        return output;
+    }
+
+    private static void remove(String key, Future<String> output) {
+        synchronized (outputs) {
+            if (outputs.get(key) == output) {
+                outputs.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drop all shared output.
+     */
+    public static void clear() {
+        synchronized (outputs) {
+            outputs.clear();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Collects how much each input file contributes to each bundle, grouped
+ * by package, and checks the totals against size budgets.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class SizeAnalyzer {
+    private final File base;
+    private final Map<String, Bundle> bundles = new LinkedHashMap<String, Bundle>();
+
+    /**
+     * The contribution of one input file to a bundle.
+     */
+    public static class FileSize {
+        private final File file;
+        private final String group;
+        private final long raw;
+        private final long minified;
+        private final boolean estimated;
+        private final List<File> requiredBy;
+
+        /**
+         * Constructor.
+         *
+         * @param file the input file
+         * @param group group the file belongs to
+         * @param raw size of the file
+         * @param minified size of the file's compressed output
+         * @param estimated true if the compressed size is an estimate
+         * @param requiredBy chain of files whose @requires pulled the file in, starting from the application
+         */
+        public FileSize(File file, String group, long raw, long minified, boolean estimated, List<File> requiredBy) {
+            this.file = file;
+            this.group = group;
+            this.raw = raw;
+            this.minified = minified;
+            this.estimated = estimated;
+            this.requiredBy = requiredBy;
+        }
+    }
+
+    private static class Bundle {
+        String variant;
+        long size;
+        final List<FileSize> files = new ArrayList<FileSize>();
+        final Map<String, long[]> groups = new LinkedHashMap<String, long[]>();
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param base directory file paths in the report are relative to
+     */
+    public SizeAnalyzer(File base) {
+        this.base = base;
+    }
+
+    /**
+     * Record the contents of a bundle.
+     *
+     * @param name name of the bundle
+     * @param size size of the bundle as written
+     * @param files contribution of each input file
+     */
+    public void add(String name, long size, List<FileSize> files) {
+        add(null, name, size, files);
+    }
+
+    /**
+     * Record the contents of a bundle built for a variant. Group budgets
+     * are checked against each variant's bundles on their own.
+     *
+     * @param variant name of the variant, or null if not building variants
+     * @param name name of the bundle
+     * @param size size of the bundle as written
+     * @param files contribution of each input file
+     */
+    public synchronized void add(String variant, String name, long size, List<FileSize> files) {
+        Bundle bundle = new Bundle();
+        bundle.variant = variant;
+        bundle.size = size;
+        bundle.files.addAll(files);
+        for (FileSize file : files) {
+            long[] group = bundle.groups.get(file.group);
+            if (group == null) {
+                group = new long[3];
+                bundle.groups.put(file.group, group);
+            }
+            group[0] += file.raw;
+            group[1] += file.minified;
+            group[2]++;
+        }
+        bundles.put(name, bundle);
+    }
+
+    private String path(File file) {
+        return Packager.relativePath(base, file);
+    }
+
+    /**
+     * @return the analysis as a map, ready for serialising
+     */
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Bundle> entry : bundles.entrySet()) {
+            Bundle bundle = entry.getValue();
+            Map<String, Object> bundleMap = new LinkedHashMap<String, Object>();
+            if (bundle.variant != null) {
+                bundleMap.put("variant", bundle.variant);
+            }
+            bundleMap.put("bytes", Long.valueOf(bundle.size));
+            Map<String, Object> groups = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, long[]> group : sortedGroups(bundle)) {
+                Map<String, Object> groupMap = new LinkedHashMap<String, Object>();
+                groupMap.put("files", Long.valueOf(group.getValue()[2]));
+                groupMap.put("rawBytes", Long.valueOf(group.getValue()[0]));
+                groupMap.put("minifiedBytes", Long.valueOf(group.getValue()[1]));
+                groups.put(group.getKey(), groupMap);
+            }
+            bundleMap.put("groups", groups);
+            List<Object> files = new ArrayList<Object>();
+            for (FileSize file : bundle.files) {
+                Map<String, Object> fileMap = new LinkedHashMap<String, Object>();
+                fileMap.put("file", path(file.file));
+                fileMap.put("group", file.group);
+                fileMap.put("rawBytes", Long.valueOf(file.raw));
+                fileMap.put("minifiedBytes", Long.valueOf(file.minified));
+                if (file.estimated) {
+                    fileMap.put("estimated", Boolean.TRUE);
+                }
+                if (!file.requiredBy.isEmpty()) {
+                    List<String> chain = new ArrayList<String>();
+                    for (File link : file.requiredBy) {
+                        chain.add(path(link));
+                    }
+                    fileMap.put("requiredBy", chain);
+                }
+                files.add(fileMap);
+            }
+            bundleMap.put("files", files);
+            report.put(entry.getKey(), bundleMap);
+        }
+        return report;
+    }
+
+    private static List<Map.Entry<String, long[]>> sortedGroups(Bundle bundle) {
+        List<Map.Entry<String, long[]>> groups = new ArrayList<Map.Entry<String, long[]>>(bundle.groups.entrySet());
+        Collections.sort(groups, new Comparator<Map.Entry<String, long[]>>() {
+            public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+                long diff = b.getValue()[1] - a.getValue()[1];
+                return diff < 0 ? -1 : diff > 0 ? 1 : a.getKey().compareTo(b.getKey());
+            }
+        });
+        return groups;
+    }
+
+    /**
+     * Log the largest groups in each bundle.
+     *
+     * @param log log to write to
+     * @param limit number of groups to list per bundle
+     */
+    public synchronized void summarise(Log log, int limit) {
+        for (Map.Entry<String, Bundle> entry : bundles.entrySet()) {
+            StringBuilder line = new StringBuilder(entry.getKey() + " (" + entry.getValue().size + " bytes):");
+            int count = 0;
+            for (Map.Entry<String, long[]> group : sortedGroups(entry.getValue())) {
+                if (count++ == limit) {
+                    line.append(" ...");
+                    break;
+                }
+                line.append(' ').append(group.getKey()).append('=').append(group.getValue()[1]);
+            }
+            log.info(line.toString());
+        }
+    }
+
+    /**
+     * Check bundle and group sizes against a set of budgets. Groups are
+     * hierarchical: a budget for a group also counts every group below it,
+     * so OpenLayers covers OpenLayers/Layer as well. A group is totalled
+     * over the bundles of each variant separately, since every variant
+     * holds its own copy.
+     *
+     * @param budgets budgets to check
+     * @return a description of each budget exceeded
+     */
+    public synchronized List<String> checkBudgets(Budget[] budgets) {
+        List<String> exceeded = new ArrayList<String>();
+        for (Budget budget : budgets) {
+            Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+            for (Map.Entry<String, Bundle> entry : bundles.entrySet()) {
+                Bundle bundle = entry.getValue();
+                long size = 0;
+                boolean found = false;
+                if (entry.getKey().equals(budget.getName())) {
+                    size += bundle.size;
+                    found = true;
+                }
+                for (Map.Entry<String, long[]> group : bundle.groups.entrySet()) {
+                    if (group.getKey().equals(budget.getName()) || group.getKey().startsWith(budget.getName() + "/")) {
+                        size += group.getValue()[1];
+                        found = true;
+                    }
+                }
+                if (found) {
+                    Long total = sizes.get(bundle.variant);
+                    sizes.put(bundle.variant, Long.valueOf(size + (total != null ? total.longValue() : 0)));
+                }
+            }
+            if (sizes.isEmpty()) {
+                exceeded.add("No bundle or group named " + budget.getName() + " to check the budget of");
+            }
+            for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+                long size = entry.getValue().longValue();
+                if (size > budget.getMaxBytes()) {
+                    exceeded.add(budget.getName() + (entry.getKey() != null ? " in variant " + entry.getKey() : "")
+                        + " is " + size + " bytes, over its budget of " + budget.getMaxBytes()
+                        + " by " + (size - budget.getMaxBytes()) + " bytes");
+                }
+            }
+        }
+        return exceeded;
+    }
+}
@@ -0,0 +1,224 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Minifier that only removes comments and whitespace, without parsing the
+ * code. Line breaks are kept where there were any, so automatic semicolon
+ * insertion works as before. Much faster than the other engines, for
+ * builds where size matters less than build time. A file whose brackets
+ * don't balance, so the scan can't be trusted to tell a regular expression
+ * from a division, is copied unchanged.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class StripMinifier implements Minifier {
+    /**
+     * Keywords after which a slash starts a regular expression rather than a division.
+     */
+    private static final Set<String> BEFORE_EXPRESSION = new HashSet<String>(Arrays.asList(
+            "case", "delete", "do", "else", "in", "instanceof", "new", "return", "throw", "typeof", "void"));
+    /**
+     * Keywords whose parenthesised header is followed by a statement, which may start with a regular expression.
+     */
+    private static final Set<String> BEFORE_HEADER = new HashSet<String>(Arrays.asList("for", "if", "while", "with"));
+
+    private final boolean proper;
+    private final Charset charset;
+
+    /**
+     * Constructor.
+     *
+     * @param proper proper mode; makes no difference to this engine
+     * @param charset encoding of the source files
+     */
+    public StripMinifier(boolean proper, Charset charset) {
+        this.proper = proper;
+        this.charset = charset;
+    }
+
+    public boolean isProper() {
+        return proper;
+    }
+
+    public String compress(Collection<File> files, boolean failOnWarn) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (File file : files) {
+            String stripped = strip(new String(CompressionCache.readFile(file), charset));
+            out.append(stripped);
+            if (stripped.length() > 0 && !stripped.endsWith(";")) {
+                out.append(';');
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    public String getOptionsFingerprint() {
+        return "strip;2";
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isJavaIdentifierPart(c) || c == '\\';
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * @return true if removing the whitespace between two characters would change their meaning
+     */
+    private static boolean needsSpace(char before, char after) {
+        return (isWordChar(before) && isWordChar(after))
+            || ((before == '+' || before == '-' || before == '/') && before == after)
+            || (before == '/' && after == '*')
+            || (Character.isDigit(before) && after == '.');
+    }
+
+    /**
+     * Remove comments and redundant whitespace from Javascript source.
+     *
+     * @param source the source
+     * @return the source without comments, with each run of whitespace
+     *         removed or reduced to a single space or line break; or if its
+     *         parentheses don't balance, the source unchanged, ending in a
+     *         line break so a trailing line comment can't swallow what follows
+     */
+    static String strip(String source) {
+        StringBuilder out = new StringBuilder(source.length());
+        int length = source.length();
+        int i = 0;
+        boolean space = false;
+        boolean lineBreak = false;
+        boolean regexAllowed = true;
+        boolean header = false;
+        // For each open parenthesis, whether it starts the header of an if, for, while or with
+        Deque<Boolean> parens = new ArrayDeque<Boolean>();
+        while (i < length) {
+            char c = source.charAt(i);
+            char next = i + 1 < length ? source.charAt(i + 1) : 0;
+            if (c == '/' && next == '/') {
+                while (i < length && !isLineBreak(source.charAt(i))) {
+                    i++;
+                }
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+                for (int j = i; j < end; j++) {
+                    lineBreak |= isLineBreak(source.charAt(j));
+                }
+                space = true;
+                i = end;
+                continue;
+            }
+            if (Character.isWhitespace(c) || c == '\u00a0' || c == '\ufeff') {
+                lineBreak |= isLineBreak(c);
+                space = true;
+                i++;
+                continue;
+            }
+            if (out.length() > 0) {
+                if (lineBreak) {
+                    out.append('\n');
+                } else if (space && needsSpace(out.charAt(out.length() - 1), c)) {
+                    out.append(' ');
+                }
+            }
+            space = false;
+            lineBreak = false;
+            boolean afterHeaderKeyword = header;
+            header = false;
+            if (c == '"' || c == '\'') {
+                i = copyString(source, i, out);
+                regexAllowed = false;
+            } else if (c == '/' && regexAllowed) {
+                i = copyRegex(source, i, out);
+                regexAllowed = false;
+            } else if (isWordChar(c)) {
+                int start = i;
+                while (i < length && isWordChar(source.charAt(i))) {
+                    i++;
+                }
+                String word = source.substring(start, i);
+                out.append(word);
+                regexAllowed = BEFORE_EXPRESSION.contains(word);
+                header = BEFORE_HEADER.contains(word);
+            } else if (c == '(') {
+                out.append(c);
+                i++;
+                parens.push(Boolean.valueOf(afterHeaderKeyword));
+                regexAllowed = true;
+            } else if (c == ')') {
+                if (parens.isEmpty()) {
+                    return unchanged(source);
+                }
+                out.append(c);
+                i++;
+                // A statement, and so possibly a regular expression, follows a header
+                regexAllowed = parens.pop().booleanValue();
+            } else {
+                out.append(c);
+                i++;
+                // Taking a division for a regular expression only means copying it verbatim, so err that way
+                regexAllowed = c != ']';
+            }
+        }
+        if (!parens.isEmpty()) {
+            return unchanged(source);
+        }
+        return out.toString();
+    }
+
+    private static String unchanged(String source) {
+        return source.length() > 0 && !isLineBreak(source.charAt(source.length() - 1)) ? source + "\n" : source;
+    }
+
+    private static int copyString(String source, int start, StringBuilder out) {
+        char quote = source.charAt(start);
+        int i = start + 1;
+        while (i < source.length()) {
+            char c = source.charAt(i++);
+            if (c == '\\' && i < source.length()) {
+                i++;
+            } else if (c == quote || isLineBreak(c)) {
+                break;
+            }
+        }
+        out.append(source, start, i);
+        return i;
+    }
+
+    private static int copyRegex(String source, int start, StringBuilder out) {
+        int i = start + 1;
+        boolean inClass = false;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (isLineBreak(c)) {
+                break;
+            }
+            i++;
+            if (c == '\\' && i < source.length()) {
+                i++;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                break;
+            }
+        }
+        out.append(source, start, i);
+        return i;
+    }
+}
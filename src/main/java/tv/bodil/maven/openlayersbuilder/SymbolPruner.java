@@ -0,0 +1,350 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.javascript.jscomp.BasicErrorManager;
+import com.google.javascript.jscomp.CheckLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+/**
+ * Drops library files whose symbols are never referenced, starting from
+ * the application files.
+ *
+ * Each library file is parsed with Closure to find the namespaced symbols
+ * it defines at the top level (for example OpenLayers.Layer.WMS = ...) and
+ * every namespaced symbol it refers to. A reference reaches the files
+ * defining the longest defined prefix of the referenced name, plus any
+ * files adding to or replacing that symbol's prototype. A lookup by
+ * computed name, such as OpenLayers.Renderer[type], can't be followed to a
+ * single symbol, so it reaches every file defining a symbol under that name. Files which can't
+ * be analysed safely are always kept: files that fail to parse, files that define no
+ * namespaced symbols, and files with top-level statements other than
+ * definitions, since those may have side effects.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class SymbolPruner {
+    private static final String PROTOTYPE = ".prototype.";
+    /**
+     * Closure also logs parse failures here at INFO; held so the level sticks.
+     */
+    private static final Logger JS_AST_LOG = Logger.getLogger("com.google.javascript.jscomp.JsAst");
+    static {
+        JS_AST_LOG.setLevel(Level.WARNING);
+    }
+    /**
+     * Suffix marking a reference to whatever a computed lookup on a symbol finds.
+     */
+    static final String COMPUTED = ".[]";
+
+    private final String namespace;
+    private final Charset charset;
+    private final Map<File, FileSymbols> analysed = new HashMap<File, FileSymbols>();
+
+    /**
+     * What a single file defines and references.
+     */
+    static class FileSymbols {
+        final Set<String> defines = new LinkedHashSet<String>();
+        final Set<String> extendsPrototypes = new LinkedHashSet<String>();
+        final Set<String> references = new LinkedHashSet<String>();
+        String keepReason = null;
+        long stamp;
+    }
+
+    /**
+     * Error manager that only collects errors. A file that fails to parse
+     * is kept, with the error as the reason, and the compile of the bundle
+     * reports it properly.
+     */
+    private static class QuietErrorManager extends BasicErrorManager {
+        @Override
+        public void println(CheckLevel level, JSError error) {
+        }
+
+        @Override
+        protected void printSummary() {
+        }
+    }
+
+    /**
+     * Result of a pruning pass.
+     */
+    public static class Result {
+        private final List<File> kept = new ArrayList<File>();
+        private final Map<File, String> removed = new LinkedHashMap<File, String>();
+
+        /**
+         * @return files that are still needed, in their original order
+         */
+        public List<File> getKept() {
+            return kept;
+        }
+
+        /**
+         * @return removed files, with the reason each was removed
+         */
+        public Map<File, String> getRemoved() {
+            return removed;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param namespace root namespace of the library, eg. "OpenLayers"
+     * @param charset encoding of the source files
+     */
+    public SymbolPruner(String namespace, Charset charset) {
+        this.namespace = namespace;
+        this.charset = charset;
+    }
+
+    /**
+     * Prune a list of library files.
+     *
+     * @param libraries library files, in dependency order
+     * @param application application files, whose references are the starting points
+     * @param keep library files to keep regardless
+     * @return the kept and removed files
+     */
+    public Result prune(List<File> libraries, Collection<File> application, Collection<File> keep) {
+        Map<String, List<File>> definers = new HashMap<String, List<File>>();
+        Map<String, List<File>> extenders = new HashMap<String, List<File>>();
+        for (File file : libraries) {
+            FileSymbols symbols = analyse(file);
+            for (String symbol : symbols.defines) {
+                add(definers, symbol, file);
+            }
+            for (String symbol : symbols.extendsPrototypes) {
+                add(extenders, symbol, file);
+            }
+        }
+
+        Set<File> reached = new HashSet<File>();
+        LinkedList<File> queue = new LinkedList<File>();
+        for (File file : libraries) {
+            if (keep.contains(file) || analyse(file).keepReason != null) {
+                reached.add(file);
+                queue.add(file);
+            }
+        }
+        Set<String> seen = new HashSet<String>();
+        LinkedList<String> symbols = new LinkedList<String>();
+        for (File file : application) {
+            FileSymbols appSymbols = analyse(file);
+            if (appSymbols.keepReason != null && appSymbols.keepReason.startsWith("could not be parsed")) {
+                // Without the application's references, nothing can be pruned safely
+                Result result = new Result();
+                result.kept.addAll(libraries);
+                return result;
+            }
+            symbols.addAll(appSymbols.references);
+        }
+        while (!symbols.isEmpty() || !queue.isEmpty()) {
+            if (!queue.isEmpty()) {
+                symbols.addAll(analyse(queue.removeFirst()).references);
+                continue;
+            }
+            String symbol = symbols.removeFirst();
+            if (!seen.add(symbol)) {
+                continue;
+            }
+            List<String> names = new ArrayList<String>();
+            if (symbol.endsWith(COMPUTED)) {
+                String owner = symbol.substring(0, symbol.length() - COMPUTED.length());
+                for (String name : definers.keySet()) {
+                    if (name.startsWith(owner + ".")) {
+                        names.add(name);
+                    }
+                }
+                symbol = owner;
+            }
+            String defined = longestDefinedPrefix(symbol, definers);
+            if (defined != null) {
+                names.add(defined);
+            }
+            List<File> targets = new ArrayList<File>();
+            for (String name : names) {
+                targets.addAll(definers.get(name));
+                if (extenders.containsKey(name)) {
+                    targets.addAll(extenders.get(name));
+                }
+            }
+            for (File file : targets) {
+                if (reached.add(file)) {
+                    queue.add(file);
+                }
+            }
+        }
+
+        Result result = new Result();
+        for (File file : libraries) {
+            if (reached.contains(file)) {
+                result.kept.add(file);
+            } else {
+                FileSymbols fileSymbols = analyse(file);
+                Set<String> provided = new LinkedHashSet<String>(fileSymbols.defines);
+                provided.addAll(fileSymbols.extendsPrototypes);
+                result.removed.put(file, "None of its symbols are referenced: " + provided);
+            }
+        }
+        return result;
+    }
+
+    private static void add(Map<String, List<File>> map, String key, File file) {
+        List<File> files = map.get(key);
+        if (files == null) {
+            files = new ArrayList<File>(1);
+            map.put(key, files);
+        }
+        files.add(file);
+    }
+
+    private static String longestDefinedPrefix(String symbol, Map<String, List<File>> definers) {
+        String name = symbol;
+        while (true) {
+            if (definers.containsKey(name)) {
+                return name;
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot < 0) {
+                return null;
+            }
+            name = name.substring(0, dot);
+        }
+    }
+
+    /**
+     * Analyse a file, reusing the previous analysis if the file hasn't changed.
+     *
+     * @param file file to analyse
+     * @return what the file defines and references
+     */
+    synchronized FileSymbols analyse(File file) {
+        long stamp = file.lastModified() * 31 + file.length();
+        FileSymbols symbols = analysed.get(file);
+        if (symbols == null || symbols.stamp != stamp) {
+            symbols = parse(file);
+            symbols.stamp = stamp;
+            analysed.put(file, symbols);
+        }
+        return symbols;
+    }
+
+    private FileSymbols parse(File file) {
+        FileSymbols symbols = new FileSymbols();
+        Compiler compiler = new Compiler(new QuietErrorManager());
+        Node root;
+        try {
+            root = compiler.parse(JSSourceFile.fromFile(file, charset));
+        } catch (RuntimeException e) {
+            symbols.keepReason = "could not be parsed: " + e.getMessage();
+            return symbols;
+        }
+        JSError[] errors = compiler.getErrors();
+        if (errors.length > 0) {
+            symbols.keepReason = "could not be parsed: " + errors[0].toString();
+            return symbols;
+        } else if (root == null) {
+            symbols.keepReason = "could not be parsed";
+            return symbols;
+        }
+        for (Node statement = root.getFirstChild(); statement != null; statement = statement.getNext()) {
+            int type = statement.getType();
+            if (type == Token.EXPR_RESULT && statement.getFirstChild().getType() == Token.ASSIGN
+                    && isNamespaced(statement.getFirstChild().getFirstChild().getQualifiedName())) {
+                Node assign = statement.getFirstChild();
+                String name = assign.getFirstChild().getQualifiedName();
+                int prototype = name.indexOf(PROTOTYPE);
+                if (prototype < 0 && name.endsWith(".prototype")) {
+                    // Replacing the whole prototype, eg. OpenLayers.Layer.prototype = {...}
+                    prototype = name.length() - ".prototype".length();
+                }
+                if (prototype >= 0) {
+                    String owner = name.substring(0, prototype);
+                    symbols.extendsPrototypes.add(owner);
+                    symbols.references.add(owner);
+                } else {
+                    symbols.defines.add(name);
+                    // Assigning to A.B.C needs A.B to exist
+                    if (name.lastIndexOf('.') > 0) {
+                        symbols.references.add(name.substring(0, name.lastIndexOf('.')));
+                    }
+                }
+                collectReferences(assign.getLastChild(), symbols.references);
+            } else if (type == Token.VAR) {
+                for (Node name = statement.getFirstChild(); name != null; name = name.getNext()) {
+                    if (namespace.equals(name.getString())) {
+                        symbols.defines.add(namespace);
+                    }
+                    collectReferences(name, symbols.references);
+                }
+            } else if (type == Token.FUNCTION) {
+                collectReferences(statement, symbols.references);
+            } else {
+                collectReferences(statement, symbols.references);
+                if (symbols.keepReason == null) {
+                    symbols.keepReason = "has top level side effects";
+                }
+            }
+        }
+        if (symbols.defines.isEmpty() && symbols.extendsPrototypes.isEmpty() && symbols.keepReason == null) {
+            symbols.keepReason = "defines no " + namespace + " symbols";
+        }
+        return symbols;
+    }
+
+    private boolean isNamespaced(String name) {
+        return name != null && (name.equals(namespace) || name.startsWith(namespace + "."));
+    }
+
+    private void collectReferences(Node node, Set<String> references) {
+        int type = node.getType();
+        if (type == Token.GETELEM) {
+            String owner = node.getFirstChild().getQualifiedName();
+            Node key = node.getLastChild();
+            if (isNamespaced(owner) && owner.endsWith(".prototype")) {
+                references.add(owner.substring(0, owner.length() - ".prototype".length()));
+                collectReferences(key, references);
+                return;
+            } else if (isNamespaced(owner) && owner.indexOf(PROTOTYPE) < 0) {
+                if (key.getType() == Token.STRING) {
+                    references.add(owner + "." + key.getString());
+                } else {
+                    references.add(owner + COMPUTED);
+                    collectReferences(key, references);
+                }
+                return;
+            }
+        }
+        if (type == Token.GETPROP || type == Token.NAME) {
+            String name = node.getQualifiedName();
+            if (isNamespaced(name)) {
+                int prototype = name.indexOf(PROTOTYPE);
+                references.add(prototype >= 0 ? name.substring(0, prototype) : name);
+                return;
+            }
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+            collectReferences(child, references);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that writes everything to two streams.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class TeeOutputStream extends OutputStream {
+    private final OutputStream first;
+    private final OutputStream second;
+
+    /**
+     * Constructor.
+     *
+     * @param first first stream
+     * @param second second stream
+     */
+    public TeeOutputStream(OutputStream first, OutputStream second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        first.write(b);
+        second.write(b);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        first.write(data, offset, length);
+        second.write(data, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        first.flush();
+        second.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            first.close();
+        } finally {
+            second.close();
+        }
+    }
+}
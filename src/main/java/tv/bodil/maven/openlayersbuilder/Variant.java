@@ -0,0 +1,134 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+
+/**
+ * One of several bundles built from the same manifest in a single run,
+ * with its own manifest fields, targets and compression settings. Anything
+ * left out is taken from the plugin configuration.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class Variant {
+
+    /**
+     * Name of the variant. Unless targets are given, the bundles are
+     * named after the default targets with the name appended, eg. dist-debug.js.
+     *
+     * @parameter
+     * @required
+     */
+    private String name;
+
+    /**
+     * List of fields in the manifest file to check for OpenLayers dependencies.
+     *
+     * @parameter
+     */
+    private String[] manifestDepsFields;
+
+    /**
+     * List of fields in the manifest file to build the Javascript file list from.
+     *
+     * @parameter
+     */
+    private String[] manifestJsFields;
+
+    /**
+     * List of fields in the manifest file to build the CSS file list from.
+     *
+     * @parameter
+     */
+    private String[] manifestCssFields;
+
+    /**
+     * Target path for the Javascript bundle.
+     *
+     * @parameter
+     */
+    private File jsTarget;
+
+    /**
+     * Target path for the CSS bundle.
+     *
+     * @parameter
+     */
+    private File cssTarget;
+
+    /**
+     * Whether to compress the JS and CSS files.
+     *
+     * @parameter
+     */
+    private Boolean compress;
+
+    /**
+     * If true, warnings in app local code are treated as errors.
+     *
+     * @parameter
+     */
+    private Boolean failOnWarn;
+
+    /**
+     * Minifier for the external libraries: closure, yui or strip.
+     *
+     * @parameter
+     */
+    private String libraryMinifier;
+
+    /**
+     * Minifier for the application local files: closure, yui or strip.
+     *
+     * @parameter
+     */
+    private String applicationMinifier;
+
+    public Variant() {
+    }
+
+    public Variant(String name, String[] manifestJsFields, Boolean compress) {
+        this.name = name;
+        this.manifestJsFields = manifestJsFields;
+        this.compress = compress;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getManifestDepsFields() {
+        return manifestDepsFields;
+    }
+
+    public String[] getManifestJsFields() {
+        return manifestJsFields;
+    }
+
+    public String[] getManifestCssFields() {
+        return manifestCssFields;
+    }
+
+    public File getJsTarget() {
+        return jsTarget;
+    }
+
+    public File getCssTarget() {
+        return cssTarget;
+    }
+
+    public Boolean getCompress() {
+        return compress;
+    }
+
+    public Boolean getFailOnWarn() {
+        return failOnWarn;
+    }
+
+    public String getLibraryMinifier() {
+        return libraryMinifier;
+    }
+
+    public String getApplicationMinifier() {
+        return applicationMinifier;
+    }
+}
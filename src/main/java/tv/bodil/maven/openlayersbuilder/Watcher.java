@@ -0,0 +1,173 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Watch mojo. Builds the bundles like the package goal, then keeps
+ * running and rebuilds the affected bundle whenever one of its inputs
+ * changes. The dependency graph and compressed output of unchanged files
+ * are kept in memory between builds.
+ *
+ * The directories holding the inputs, including files only checked for
+ * OpenLayers dependencies, are watched with a WatchService.
+ * Events only wake the goal up; which inputs changed is decided by
+ * comparing their modification times and sizes with the last build's.
+ * Variants and deferred parts aren't supported.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ *
+ * @goal watch
+ */
+public class Watcher extends Packager {
+
+    /**
+     * Milliseconds to wait after a change for further changes before
+     * rebuilding, so saving several files at once causes a single rebuild.
+     *
+     * @parameter expression=100
+     */
+    private int watchInterval;
+
+    private final FileStamps stamps = new FileStamps();
+    private final Map<Path, WatchKey> watched = new HashMap<Path, WatchKey>();
+    private WatchService watchService;
+
+    /**
+     * Start watching the directories holding a set of files.
+     *
+     * @param files files to watch
+     */
+    private void watch(Collection<File> files) {
+        for (File file : files) {
+            Path directory = file.getAbsoluteFile().getParentFile().toPath();
+            WatchKey key = watched.get(directory);
+            if (key != null && key.isValid()) {
+                continue;
+            }
+            try {
+                watched.put(directory, directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE));
+            } catch (IOException e) {
+                getLog().warn("Unable to watch " + directory + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Block until something changes in a watched directory, then until
+     * nothing has changed for watchInterval milliseconds.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void awaitChanges() throws InterruptedException {
+        WatchKey key = watchService.take();
+        while (key != null) {
+            key.pollEvents();
+            // A key that can't be reset belongs to a deleted directory; watch() registers it again if it comes back
+            key.reset();
+            key = watchService.poll(Math.max(watchInterval, 0), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        checkSingleBundle("watch");
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to watch for changes: " + e.getMessage());
+        }
+        setUp();
+        keepInMemory();
+        try {
+            Manifest m = createManifest();
+            JSFiles js = resolveJSFiles(m);
+            Collection<File> deps = resolveDepsFiles(m);
+            Collection<File> css = resolveCSSFiles(m);
+            buildJS(js);
+            buildCSS(css);
+            writeAssetManifest();
+            stamps.record(Collections.singleton(getManifestFile()), false);
+            stamps.record(jsInputs(js, deps), false);
+            stamps.record(css, false);
+            watch(Collections.singleton(getManifestFile()));
+            watch(jsInputs(js, deps));
+            watch(css);
+            getLog().info("Watching for changes, press Ctrl-C to stop.");
+
+            while (!Thread.currentThread().isInterrupted()) {
+                awaitChanges();
+                boolean manifestChanged = !stamps.changed(Collections.singleton(getManifestFile())).isEmpty();
+                List<File> jsChanged = stamps.changed(jsInputs(js, deps));
+                List<File> cssChanged = stamps.changed(css);
+                if (!manifestChanged && jsChanged.isEmpty() && cssChanged.isEmpty()) {
+                    continue;
+                }
+                // Record the state we're about to build from, so edits made during the build are picked up next time
+                stamps.record(Collections.singleton(getManifestFile()), false);
+                stamps.record(jsChanged, false);
+                stamps.record(cssChanged, false);
+                long start = System.currentTimeMillis();
+                forget(m, jsChanged);
+                try {
+                    if (manifestChanged) {
+                        getLog().info("Manifest changed, rebuilding everything");
+                        m.reload();
+                        js = resolveJSFiles(m);
+                        deps = resolveDepsFiles(m);
+                        css = resolveCSSFiles(m);
+                        buildJS(js);
+                        buildCSS(css);
+                    } else {
+                        if (!jsChanged.isEmpty()) {
+                            getLog().info("Changed: " + jsChanged);
+                            js = resolveJSFiles(m);
+                            buildJS(js);
+                        }
+                        if (!cssChanged.isEmpty()) {
+                            getLog().info("Changed: " + cssChanged);
+                            buildCSS(css);
+                        }
+                    }
+                    writeAssetManifest();
+                    getLog().info("Rebuilt in " + (System.currentTimeMillis() - start) + " ms");
+                } catch (MojoFailureException e) {
+                    getLog().error(e.getMessage());
+                } catch (MojoExecutionException e) {
+                    getLog().error(e.getMessage());
+                }
+                // Start watching any files the rebuild pulled in
+                stamps.record(jsInputs(js, deps), true);
+                stamps.record(css, true);
+                watch(jsInputs(js, deps));
+                watch(css);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            tearDown();
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                getLog().debug("Unable to close watch service: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
+
+import com.yahoo.platform.yui.compressor.JavaScriptCompressor;
+
+/**
+ * Minifier using YUI Compressor: local variables are renamed and
+ * whitespace and comments removed, but no code is rewritten. Each file is
+ * compressed on its own.
+ *
+ * @author Bodil Stokke (bodil@bodil.tv)
+ */
+public class YuiMinifier implements Minifier {
+    private final boolean proper;
+    private final Charset charset;
+    private final Log log;
+
+    /**
+     * Constructor.
+     *
+     * @param proper log warnings if true
+     * @param charset encoding of the source files
+     * @param log log to write compressor messages to
+     */
+    public YuiMinifier(boolean proper, Charset charset, Log log) {
+        this.proper = proper;
+        this.charset = charset;
+        this.log = log;
+    }
+
+    /**
+     * Error reporter collecting compressor messages for a file.
+     */
+    private class Reporter implements ErrorReporter {
+        final File file;
+        final List<String> errors = new ArrayList<String>();
+        int warnings = 0;
+
+        Reporter(File file) {
+            this.file = file;
+        }
+
+        private String format(String message, int line, int lineOffset) {
+            return file.toString() + (line > 0 ? ":" + line + ":" + lineOffset : "") + ": " + message;
+        }
+
+        public void warning(String message, String sourceName, int line, String lineSource, int lineOffset) {
+            warnings++;
+            if (proper) {
+                log.warn(format(message, line, lineOffset));
+            }
+        }
+
+        public void error(String message, String sourceName, int line, String lineSource, int lineOffset) {
+            String error = format(message, line, lineOffset);
+            log.error(error);
+            errors.add(error);
+        }
+
+        public EvaluatorException runtimeError(String message, String sourceName, int line, String lineSource, int lineOffset) {
+            error(message, sourceName, line, lineSource, lineOffset);
+            return new EvaluatorException(message, sourceName, line, lineSource, lineOffset);
+        }
+    }
+
+    public boolean isProper() {
+        return proper;
+    }
+
+    public String compress(Collection<File> files, boolean failOnWarn) throws IOException, MojoFailureException {
+        StringWriter out = new StringWriter();
+        List<String> errors = new ArrayList<String>();
+        int warnings = 0;
+        for (File file : files) {
+            Reporter reporter = new Reporter(file);
+            Reader in = new InputStreamReader(new FileInputStream(file), charset);
+            try {
+                new JavaScriptCompressor(in, reporter).compress(out, -1, true, false, false, false);
+            } catch (EvaluatorException e) {
+                // Already reported
+            } finally {
+                in.close();
+            }
+            errors.addAll(reporter.errors);
+            warnings += reporter.warnings;
+            // Files are compressed separately, so keep their last statements apart
+            StringBuffer buffer = out.getBuffer();
+            if (buffer.length() > 0 && buffer.charAt(buffer.length() - 1) != ';') {
+                out.write(';');
+            }
+        }
+        if (!errors.isEmpty() || (failOnWarn && warnings > 0)) {
+            StringBuilder message = new StringBuilder();
+            for (String error : errors) {
+                message.append(error + "\n");
+            }
+            if (errors.isEmpty()) {
+                message.append(warnings + " warning(s)\n");
+            }
+            throw new MojoFailureException(message.toString());
+        }
+        return out.toString();
+    }
+
+    public String getOptionsFingerprint() {
+        return "yui;munge=true;preserveAllSemiColons=false;disableOptimizations=false;";
+    }
+}
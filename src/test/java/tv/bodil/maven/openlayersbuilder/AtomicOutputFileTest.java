@@ -0,0 +1,36 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class AtomicOutputFileTest {
+    private static boolean write(File target, String data) throws IOException {
+        AtomicOutputFile output = new AtomicOutputFile(target);
+        output.getStream().write(data.getBytes(CompressionCache.CHARSET));
+        return output.commit();
+    }
+
+    @Test
+    public void testCommit() throws IOException {
+        File root = File.createTempFile("atomic", "");
+        root.delete();
+        root.mkdirs();
+        root.deleteOnExit();
+        File target = new File(root, "dist.js");
+        target.deleteOnExit();
+        assertTrue(write(target, "first"));
+        // Replaces an existing target
+        assertTrue(write(target, "second"));
+        assertEquals("second", new String(CompressionCache.readFile(target), CompressionCache.CHARSET));
+        // Leaves the target alone when nothing changed
+        long modified = target.lastModified();
+        assertFalse(write(target, "second"));
+        assertEquals(modified, target.lastModified());
+        // No temporary files are left behind
+        assertArrayEquals(new String[] { "dist.js" }, root.list());
+    }
+}
@@ -0,0 +1,57 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ChunkSplitterTest {
+    private static final File BASE = new File("OpenLayers/BaseTypes.js");
+    private static final File MAP = new File("OpenLayers/Map.js");
+    private static final File EDIT = new File("OpenLayers/Control/Edit.js");
+    private static final File WFS = new File("OpenLayers/Protocol/WFS.js");
+
+    @Test
+    public void testSplit() {
+        Map<String, List<File>> entrypoints = new LinkedHashMap<String, List<File>>();
+        entrypoints.put("view", Arrays.asList(BASE, MAP));
+        entrypoints.put("edit", Arrays.asList(BASE, MAP, EDIT));
+        entrypoints.put("search", Arrays.asList(BASE, WFS));
+        ChunkSplitter splitter = new ChunkSplitter(entrypoints);
+
+        List<ChunkSplitter.Chunk> chunks = splitter.getChunks();
+        assertEquals(4, chunks.size());
+        String all = chunks.get(0).getName();
+        assertTrue(all, all.matches("shared-[0-9a-f]{8}"));
+        assertEquals(Arrays.asList(BASE), chunks.get(0).getFiles());
+        assertEquals("shared-edit-view", chunks.get(1).getName());
+        assertEquals(Arrays.asList(MAP), chunks.get(1).getFiles());
+        assertEquals("edit", chunks.get(2).getName());
+        assertEquals("search", chunks.get(3).getName());
+
+        List<ChunkSplitter.Chunk> view = splitter.getChunksByEntrypoint().get("view");
+        assertEquals(2, view.size());
+        assertEquals(all, view.get(0).getName());
+        assertEquals("shared-edit-view", view.get(1).getName());
+    }
+
+    @Test
+    public void testHyphenatedNames() {
+        File a = new File("a.js");
+        File b = new File("b.js");
+        Map<String, List<File>> entrypoints = new LinkedHashMap<String, List<File>>();
+        entrypoints.put("a-b", Arrays.asList(a));
+        entrypoints.put("c", Arrays.asList(a));
+        entrypoints.put("a", Arrays.asList(b));
+        entrypoints.put("b-c", Arrays.asList(b));
+        // Both shared chunks would be called shared-a-b-c
+        List<ChunkSplitter.Chunk> chunks = new ChunkSplitter(entrypoints).getChunks();
+        assertEquals(2, chunks.size());
+        assertFalse(chunks.get(0).getName().equals(chunks.get(1).getName()));
+    }
+}
@@ -0,0 +1,72 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CliTest {
+    private static Object field(Object target, String name) throws Exception {
+        Field field = Packager.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    @Test
+    public void testParseArguments() {
+        Map<String, Object> options = Cli.parseArguments(new String[] {
+            "--manifest", "manifest.js", "--manifestJsFields=js,deps", "--gzip", "--threads", "4" });
+        assertEquals("manifest.js", options.get("manifest"));
+        assertEquals("js,deps", options.get("manifestJsFields"));
+        assertEquals("true", options.get("gzip"));
+        assertEquals("4", options.get("threads"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownParameter() {
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        options.put("noSuchParameter", "true");
+        Cli.configure(new Packager(), options);
+    }
+
+    @Test
+    public void testConfigure() throws Exception {
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        options.put("manifest", "src/manifest.js");
+        Map<String, Object> entrypoint = new LinkedHashMap<String, Object>();
+        entrypoint.put("name", "viewer");
+        entrypoint.put("manifestJsFields", Arrays.asList("viewer"));
+        options.put("entrypoints", Arrays.asList(entrypoint));
+        Map<String, Object> budget = new LinkedHashMap<String, Object>();
+        budget.put("name", "viewer.js");
+        budget.put("maxBytes", Double.valueOf(200000));
+        List<Object> budgets = Arrays.<Object>asList(budget);
+        options.put("budgets", budgets);
+        Packager packager = new Packager();
+        Cli.configure(packager, options);
+        assertEquals(new File("src/manifest.js"), packager.getManifestFile());
+        Entrypoint[] entrypoints = (Entrypoint[]) field(packager, "entrypoints");
+        assertEquals(1, entrypoints.length);
+        assertEquals("viewer", entrypoints[0].getName());
+        assertArrayEquals(new String[] { "viewer" }, entrypoints[0].getManifestJsFields());
+        assertNull(entrypoints[0].getManifestDepsFields());
+        Budget[] configured = (Budget[]) field(packager, "budgets");
+        assertEquals(1, configured.length);
+        assertEquals("viewer.js", configured[0].getName());
+        // JSON numbers are parsed as doubles
+        assertEquals(200000L, configured[0].getMaxBytes());
+    }
+
+    @Test
+    public void testEvaluate() {
+        assertEquals("out/dist/dist.js", Cli.evaluate("${project.build.directory}/dist/dist.js", new File("out")));
+        assertNull(Cli.evaluate("${project.build.sourceEncoding}", new File("out")));
+        assertEquals("true", Cli.evaluate("true", new File("out")));
+    }
+}
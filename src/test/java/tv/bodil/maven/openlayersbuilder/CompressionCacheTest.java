@@ -0,0 +1,54 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class CompressionCacheTest {
+    private static File tempDirectory() throws IOException {
+        File root = File.createTempFile("cache", "");
+        root.delete();
+        root.mkdirs();
+        root.deleteOnExit();
+        return root;
+    }
+
+    @Test
+    public void testPut() throws IOException {
+        File root = tempDirectory();
+        CompressionCache cache = new CompressionCache(root);
+        String key = CompressionCache.key("test", "a");
+        assertNull(cache.get(key));
+        cache.put(key, "first");
+        new File(root, key).deleteOnExit();
+        // Replaces an existing entry
+        cache.put(key, "second");
+        assertEquals("second", cache.get(key));
+        // No temporary files are left behind
+        assertArrayEquals(new String[] { key }, root.list());
+    }
+
+    @Test
+    public void testPrune() throws IOException {
+        File root = tempDirectory();
+        CompressionCache cache = new CompressionCache(root);
+        long now = System.currentTimeMillis();
+        String[] keys = { CompressionCache.key("test", "a"), CompressionCache.key("test", "b"), CompressionCache.key("test", "c") };
+        for (int i = 0; i < keys.length; i++) {
+            cache.put(keys[i], "abc".substring(i, i + 1));
+            File entry = new File(root, keys[i]);
+            entry.deleteOnExit();
+            entry.setLastModified(now - (keys.length - i) * 60000L);
+        }
+        // Reading an entry marks it as recently used
+        assertEquals("a", cache.get(keys[0]));
+        assertEquals(0, cache.prune(3));
+        assertEquals(1, cache.prune(2));
+        assertNull(cache.get(keys[1]));
+        assertEquals("a", cache.get(keys[0]));
+        assertEquals("c", cache.get(keys[2]));
+    }
+}
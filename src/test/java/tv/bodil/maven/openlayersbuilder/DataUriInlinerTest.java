@@ -0,0 +1,62 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+public class DataUriInlinerTest {
+    private static void write(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testInline() throws IOException {
+        File root = File.createTempFile("inliner", "");
+        root.delete();
+        File theme = new File(root, "theme/default");
+        write(new File(theme, "img/icon.png"), new byte[] { 1, 2, 3, 4 });
+        write(new File(theme, "img/big.png"), new byte[100]);
+        write(new File(theme, "font.eot"), "abc".getBytes("UTF-8"));
+        try {
+            DataUriInliner inliner = new DataUriInliner(50);
+            String css = ".a { background: url(img/icon.png); }\n"
+                + ".b { background: url( \"img/big.png\" ); }\n"
+                + ".c { src: url('font.eot?#iefix'); }\n"
+                + ".d { background: url(http://example.com/x.png); }\n"
+                + ".e { background: url(img/missing.png); }\n";
+            String expected = ".a { background: url(data:image/png;base64,AQIDBA==); }\n"
+                + ".b { background: url( \"img/big.png\" ); }\n"
+                + ".c { src: url(data:application/vnd.ms-fontobject;base64,YWJj); }\n"
+                + ".d { background: url(http://example.com/x.png); }\n"
+                + ".e { background: url(img/missing.png); }\n";
+            assertEquals(expected, inliner.inline(css, theme));
+        } finally {
+            new File(theme, "img/icon.png").delete();
+            new File(theme, "img/big.png").delete();
+            new File(theme, "font.eot").delete();
+            new File(theme, "img").delete();
+            theme.delete();
+            theme.getParentFile().delete();
+            root.delete();
+        }
+    }
+
+    @Test
+    public void testEncode() throws IOException {
+        assertEquals("", DataUriInliner.encode(new byte[0]));
+        assertEquals("Zg==", DataUriInliner.encode("f".getBytes("UTF-8")));
+        assertEquals("Zm8=", DataUriInliner.encode("fo".getBytes("UTF-8")));
+        assertEquals("Zm9vYmFy", DataUriInliner.encode("foobar".getBytes("UTF-8")));
+    }
+}
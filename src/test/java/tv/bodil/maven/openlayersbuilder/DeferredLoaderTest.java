@@ -0,0 +1,55 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+public class DeferredLoaderTest {
+    private static final String DOM = "var window = this, loaded = [], called = [];\n"
+        + "var document = {\n"
+        + "    getElementsByTagName: function(name) {\n"
+        + "        return name == 'head' ? [{ appendChild: function(script) { loaded.push(script.src); script.onload(); } }] : [];\n"
+        + "    },\n"
+        + "    createElement: function() { return {}; }\n"
+        + "};\n";
+
+    private String run(Map<String, Map<String, Object>> parts, String calls) {
+        String script = DOM + DeferredLoader.script("http://example.com/js/", parts) + calls
+            + "loaded.join(',') + ';' + called.join(',');\n";
+        Context context = Context.enter();
+        try {
+            Scriptable scope = context.initStandardObjects();
+            return Context.toString(context.evaluateString(scope, script, "loader", 1, null));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void testLoad() {
+        Map<String, Map<String, Object>> parts = new LinkedHashMap<String, Map<String, Object>>();
+        parts.put("formats", DeferredLoader.part("dist-formats.js", Collections.<String>emptyList()));
+        parts.put("empty", DeferredLoader.part(null, Collections.<String>emptyList()));
+        parts.put("editing", DeferredLoader.part("dist-editing.js", Arrays.asList("formats", "empty")));
+        assertEquals("http://example.com/js/dist-formats.js,http://example.com/js/dist-editing.js;editing,formats",
+                run(parts, "OpenLayersBuilder.load('editing', function() { called.push('editing'); });\n"
+                    + "OpenLayersBuilder.load('formats', function() { called.push('formats'); });\n"));
+    }
+
+    @Test
+    public void testAlias() {
+        Map<String, Map<String, Object>> parts = new LinkedHashMap<String, Map<String, Object>>();
+        parts.put("formats", DeferredLoader.part("dist-formats.js", Collections.<String>emptyList()));
+        parts.put("wfs", DeferredLoader.part(null, Arrays.asList("formats")));
+        assertEquals("http://example.com/js/dist-formats.js;wfs,wfs-again",
+                run(parts, "OpenLayersBuilder.load('wfs', function() { called.push('wfs'); });\n"
+                    + "OpenLayersBuilder.load('wfs', function() { called.push('wfs-again'); });\n"));
+    }
+}
@@ -0,0 +1,67 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DependencyIndexTest {
+    private static void write(File file, String data) throws IOException {
+        file.deleteOnExit();
+        FileWriter out = new FileWriter(file);
+        out.write(data);
+        out.close();
+    }
+
+    @Test
+    public void testIndex() throws IOException {
+        File root = File.createTempFile("index", "");
+        root.delete();
+        root.mkdirs();
+        root.deleteOnExit();
+        File a = new File(root, "a.js");
+        File b = new File(root, "b.js");
+        File c = new File(root, "c.js");
+        write(a, "// @requires b.js\n// @requires c.js\n");
+        write(b, "// @requires c.js\n");
+        write(c, "");
+        File indexFile = new File(root, "deps.idx");
+        indexFile.deleteOnExit();
+
+        DependencyGraph graph = new DependencyGraph(root);
+        graph.resolve(Collections.singletonList(a), true);
+        DependencyIndex index = new DependencyIndex(indexFile, root, "test");
+        assertTrue(index.save(graph.getEdges(), Long.MAX_VALUE));
+
+        Map<File, Collection<File>> known = new DependencyIndex(indexFile, root, "test").load();
+        assertEquals(3, known.size());
+        assertEquals(Arrays.asList(b, c), known.get(a));
+        assertEquals(Arrays.asList(c), known.get(b));
+        assertTrue(known.get(c).isEmpty());
+
+        // Touched but unchanged files are checked by content and kept
+        assertTrue(a.setLastModified(a.lastModified() - 10000));
+        index = new DependencyIndex(indexFile, root, "test");
+        known = index.load();
+        assertEquals(3, known.size());
+        assertEquals(1, index.getRehashed());
+
+        // Changed files are dropped
+        write(b, "// @requires a.js\n\n");
+        index = new DependencyIndex(indexFile, root, "test");
+        known = index.load();
+        assertEquals(2, known.size());
+        assertFalse(known.containsKey(b));
+        assertEquals(1, index.getStale());
+
+        // Different scanner settings don't share an index
+        assertTrue(new DependencyIndex(indexFile, root, "other").load().isEmpty());
+    }
+}
@@ -0,0 +1,153 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.junit.Test;
+
+public class DevServerTest {
+    @Test
+    public void testMatches() {
+        String etag = "\"0a1b2c\"";
+        assertFalse(DevServer.matches(null, etag));
+        assertTrue(DevServer.matches("\"0a1b2c\"", etag));
+        assertTrue(DevServer.matches("\"ffff\", \"0a1b2c\"", etag));
+        assertTrue(DevServer.matches("*", etag));
+        assertFalse(DevServer.matches("\"ffff\"", etag));
+        assertFalse(DevServer.matches("W/\"0a1b2c\"", etag));
+    }
+
+    @Test
+    public void testLoaderScript() {
+        String script = DevServer.loaderScript(Arrays.asList("/src/openlayers/OpenLayers.js", "/src/app/app.js"));
+        int first = script.indexOf("\"/src/openlayers/OpenLayers.js\"");
+        int second = script.indexOf("\"/src/app/app.js\"");
+        assertTrue(first > 0);
+        assertTrue(second > first);
+        assertTrue(script.contains("document.write"));
+    }
+
+    private static File write(File root, String name, String data, long modified) throws IOException {
+        File file = new File(root, name);
+        file.deleteOnExit();
+        FileWriter out = new FileWriter(file);
+        out.write(data);
+        out.close();
+        // Make the change visible however coarse the file system's timestamps are
+        file.setLastModified(modified);
+        return file;
+    }
+
+    private static HttpURLConnection get(int port, String path, String etag) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setUseCaches(false);
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        return connection;
+    }
+
+    private static String body(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        try {
+            StringBuilder body = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                body.append((char) c);
+            }
+            return body.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testServe() throws Exception {
+        File root = File.createTempFile("serve", "");
+        root.delete();
+        root.mkdirs();
+        root.deleteOnExit();
+        long modified = System.currentTimeMillis() - 60000;
+        write(root, "manifest.json", "{ \"js\": [\"a.js\"], \"css\": [] }\n", modified);
+        write(root, "a.js", "var first = 1;\n", modified);
+        ServerSocket socket = new ServerSocket(0);
+        final int port = socket.getLocalPort();
+        socket.close();
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        options.put("manifest", new File(root, "manifest.json").getPath());
+        options.put("manifestJsFields", "js");
+        options.put("manifestCssFields", "css");
+        options.put("jsTarget", new File(root, "dist.js").getPath());
+        options.put("cssTarget", new File(root, "dist.css").getPath());
+        options.put("compress", "true");
+        options.put("libraryMinifier", "strip");
+        options.put("applicationMinifier", "strip");
+        options.put("port", Integer.toString(port));
+        options.put("bindAddress", "127.0.0.1");
+        final DevServer server = new DevServer();
+        Cli.configure(server, options);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    server.execute();
+                } catch (MojoExecutionException e) {
+                    throw new RuntimeException(e);
+                } catch (MojoFailureException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        try {
+            for (int i = 0; ; i++) {
+                try {
+                    new Socket("127.0.0.1", port).close();
+                    break;
+                } catch (IOException e) {
+                    assertTrue("Server didn't start", i < 100 && thread.isAlive());
+                    Thread.sleep(50);
+                }
+            }
+
+            HttpURLConnection first = get(port, "/dist.js", null);
+            assertEquals(200, first.getResponseCode());
+            assertTrue(body(first).contains("first"));
+            String etag = first.getHeaderField("ETag");
+            assertNotNull(etag);
+            assertEquals(304, get(port, "/dist.js", etag).getResponseCode());
+
+            // Rebuilt on the next request after a source changes
+            write(root, "a.js", "var second = 2;\n", modified + 10000);
+            HttpURLConnection changed = get(port, "/dist.js", etag);
+            assertEquals(200, changed.getResponseCode());
+            assertTrue(body(changed).contains("second"));
+            String changedEtag = changed.getHeaderField("ETag");
+            assertFalse(etag.equals(changedEtag));
+
+            // A source changed along with the manifest isn't served from the old build
+            write(root, "manifest.json", "{ \"js\": [\"a.js\"], \"css\": [], \"unused\": [] }\n", modified + 20000);
+            write(root, "a.js", "var third = 3;\n", modified + 20000);
+            HttpURLConnection both = get(port, "/dist.js", changedEtag);
+            assertEquals(200, both.getResponseCode());
+            assertTrue(body(both).contains("third"));
+
+            assertEquals(404, get(port, "/missing.js", null).getResponseCode());
+        } finally {
+            thread.interrupt();
+            thread.join(10000);
+        }
+    }
+}
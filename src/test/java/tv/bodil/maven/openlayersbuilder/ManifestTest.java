@@ -2,10 +2,18 @@ package tv.bodil.maven.openlayersbuilder;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.junit.Test;
 
 import tv.bodil.maven.openlayersbuilder.Manifest;
@@ -17,5 +25,82 @@ public class ManifestTest {
         Collection<String> deps = Manifest.parseDependencies(data);
         assertArrayEquals(new String[]{ "foo.js", "bar.js" }, deps.toArray(new String[0]));
     }
-}
 
+    private static File createTree(String... files) throws IOException {
+        File root = File.createTempFile("manifest", "");
+        root.delete();
+        root.mkdirs();
+        root.deleteOnExit();
+        for (int i = 0; i < files.length; i += 2) {
+            File file = new File(root, files[i]);
+            file.deleteOnExit();
+            FileWriter out = new FileWriter(file);
+            out.write(files[i + 1]);
+            out.close();
+        }
+        return root;
+    }
+
+    @Test
+    public void testBuildDependencyTree() throws IOException, MojoFailureException {
+        File root = createTree(
+                "app.js", "// @requires c.js\n// @requires a.js\n",
+                "a.js", "// @requires b.js\n",
+                "b.js", "",
+                "c.js", "// @requires b.js\n");
+        Manifest m = new Manifest(new File(root, "manifest.js"), root);
+        Collection<File> tree = m.buildDependencyTree(Collections.singletonList(new File(root, "app.js")), root);
+        assertEquals(Arrays.asList(new File(root, "b.js"), new File(root, "c.js"), new File(root, "a.js")), tree);
+    }
+
+    @Test
+    public void testBuildDependencyTreeCycle() throws IOException {
+        File root = createTree(
+                "app.js", "// @requires a.js\n",
+                "a.js", "// @requires b.js\n",
+                "b.js", "// @requires a.js\n");
+        Manifest m = new Manifest(new File(root, "manifest.js"), root);
+        try {
+            m.buildDependencyTree(Collections.singletonList(new File(root, "app.js")), root);
+            fail("Expected a dependency cycle");
+        } catch (MojoFailureException e) {
+            assertTrue(e.getMessage().contains("a.js -> "));
+            assertTrue(e.getMessage().contains("b.js -> "));
+        }
+    }
+
+    @Test
+    public void testBuildFileListScript() throws Exception {
+        File root = createTree("manifest.js", "var js = ['a.js', 'b.js'];\nvar css = 'c' + '.css';\n");
+        Manifest m = new Manifest(new File(root, "manifest.js"), null);
+        assertEquals(Arrays.asList(new File(root, "a.js"), new File(root, "b.js")), m.buildFileList(new String[]{ "js" }));
+        assertEquals(Arrays.asList(new File(root, "c.css")), m.buildFileList(new String[]{ "css" }));
+    }
+
+    @Test
+    public void testBuildFileListJson() throws Exception {
+        File root = createTree("manifest.json", "{ \"js\": [\"a.js\", \"b.js\"], \"css\": \"c.css\" }\n");
+        Manifest m = new Manifest(new File(root, "manifest.json"), null);
+        assertEquals(Arrays.asList(new File(root, "a.js"), new File(root, "b.js"), new File(root, "c.css")),
+                m.buildFileList(new String[]{ "js", "css" }));
+    }
+
+    @Test
+    public void testManifestCharset() throws Exception {
+        File root = createTree();
+        File manifest = new File(root, "manifest.json");
+        manifest.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(manifest);
+        out.write("{ \"js\": [\"k\u00e5ge.js\"] }\n".getBytes("ISO-8859-1"));
+        out.close();
+        Manifest m = new Manifest(manifest, null);
+        m.setCharset(Charset.forName("ISO-8859-1"));
+        assertEquals(Arrays.asList(new File(root, "k\u00e5ge.js")), m.buildFileList(new String[]{ "js" }));
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void testBuildFileListMissingField() throws Exception {
+        File root = createTree("manifest.js", "var js = ['a.js'];\n");
+        new Manifest(new File(root, "manifest.js"), null).buildFileList(new String[]{ "css" });
+    }
+}
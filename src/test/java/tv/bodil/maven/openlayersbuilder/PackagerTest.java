@@ -0,0 +1,241 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.junit.Test;
+
+public class PackagerTest {
+    private static File createFile(File root, String name, int size) throws IOException {
+        File file = new File(root, name);
+        file.deleteOnExit();
+        FileWriter out = new FileWriter(file);
+        for (int i = 0; i < size; i++) {
+            out.write('x');
+        }
+        out.close();
+        return file;
+    }
+
+    private static File createFile(File root, String name, String data) throws IOException {
+        File file = new File(root, name);
+        file.getParentFile().mkdirs();
+        file.deleteOnExit();
+        FileWriter out = new FileWriter(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+
+    private static File createRoot(String name) throws IOException {
+        File root = File.createTempFile(name, "");
+        root.delete();
+        root.mkdirs();
+        root.deleteOnExit();
+        return root;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(CompressionCache.readFile(file), CompressionCache.CHARSET);
+    }
+
+    @Test
+    public void testSplitBatches() throws IOException {
+        File root = createRoot("batches");
+        File a = createFile(root, "a.js", 40);
+        File b = createFile(root, "b.js", 50);
+        File c = createFile(root, "c.js", 150);
+        File d = createFile(root, "d.js", 10);
+        File e = createFile(root, "e.js", 20);
+        List<List<File>> batches = Packager.splitBatches(Arrays.asList(a, b, c, d, e), 100);
+        assertEquals(3, batches.size());
+        assertEquals(Arrays.asList(a, b), batches.get(0));
+        assertEquals(Arrays.asList(c), batches.get(1));
+        assertEquals(Arrays.asList(d, e), batches.get(2));
+        assertTrue(Packager.splitBatches(new ArrayList<File>(), 100).isEmpty());
+    }
+
+    @Test
+    public void testVariantTarget() {
+        assertEquals(new File("dist", "dist-debug.js"), Packager.variantTarget(new File("dist", "dist.js"), "debug"));
+        assertEquals(new File("dist", "bundle-debug"), Packager.variantTarget(new File("dist", "bundle"), "debug"));
+    }
+
+    @Test
+    public void testBuildVariants() throws IOException, MojoExecutionException, MojoFailureException {
+        File root = createRoot("variants");
+        createFile(root, "manifest.json", "{ \"js\": [\"a.js\"], \"all\": [\"a.js\", \"b.js\"], \"css\": [\"c.css\"] }\n");
+        createFile(root, "a.js", "/* a */\nvar a = 1;\n");
+        createFile(root, "b.js", "var b = 2;\n");
+        createFile(root, "c.css", "body { color: red; }\n");
+        File out = new File(root, "out");
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        options.put("manifest", new File(root, "manifest.json").getPath());
+        options.put("manifestJsFields", "js");
+        options.put("manifestCssFields", "css");
+        options.put("jsTarget", new File(out, "dist.js").getPath());
+        options.put("cssTarget", new File(out, "dist.css").getPath());
+        options.put("compress", "false");
+        options.put("libraryMinifier", "strip");
+        options.put("applicationMinifier", "strip");
+        options.put("encoding", "UTF-8");
+        Map<String, Object> full = new LinkedHashMap<String, Object>();
+        full.put("name", "full");
+        full.put("manifestJsFields", Arrays.asList("all"));
+        full.put("compress", "true");
+        Map<String, Object> plain = new LinkedHashMap<String, Object>();
+        plain.put("name", "plain");
+        options.put("variants", Arrays.asList(full, plain));
+        Packager packager = new Packager();
+        Cli.configure(packager, options);
+        packager.execute();
+
+        String fullJs = read(new File(out, "dist-full.js"));
+        assertTrue(fullJs.matches("(?s).*b\\s*=\\s*2.*"));
+        assertFalse(fullJs.contains("/* a */"));
+        // The second variant gets the plugin's own settings back
+        String plainJs = read(new File(out, "dist-plain.js"));
+        assertTrue(plainJs.contains("/* a */"));
+        assertFalse(plainJs.contains("b = 2"));
+        assertTrue(new File(out, "dist-full.css").isFile());
+        assertTrue(new File(out, "dist-plain.css").isFile());
+        assertFalse(new File(out, "dist.js").exists());
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void testVariantsNotWatched() throws MojoExecutionException {
+        Map<String, Object> variant = new LinkedHashMap<String, Object>();
+        variant.put("name", "debug");
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        options.put("variants", Arrays.asList(variant));
+        Watcher watcher = new Watcher();
+        Cli.configure(watcher, options);
+        watcher.checkSingleBundle("watch");
+    }
+
+    @Test
+    public void testGzipLevelChecked() {
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        options.put("gzip", "true");
+        options.put("gzipLevel", "10");
+        Packager packager = new Packager();
+        Cli.configure(packager, options);
+        try {
+            packager.setUp();
+            fail("Expected gzipLevel 10 to be rejected");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("gzipLevel"));
+        } finally {
+            packager.tearDown();
+        }
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void testSharedEntrypointName() throws MojoExecutionException, MojoFailureException {
+        Map<String, Object> entrypoint = new LinkedHashMap<String, Object>();
+        entrypoint.put("name", "shared-map");
+        entrypoint.put("manifestJsFields", Arrays.asList("js"));
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        options.put("entrypoints", Arrays.asList(entrypoint));
+        Packager packager = new Packager();
+        Cli.configure(packager, options);
+        packager.buildEntrypoints(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> measuredFiles(Map<String, Object> budget) throws IOException, MojoExecutionException, MojoFailureException {
+        File root = createRoot("budgets");
+        createFile(root, "manifest.json", "{ \"js\": [\"a.js\"], \"css\": [] }\n");
+        createFile(root, "a.js", "var a = 1;\n");
+        File sizes = new File(root, "sizes.json");
+        sizes.deleteOnExit();
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        options.put("manifest", new File(root, "manifest.json").getPath());
+        options.put("manifestJsFields", "js");
+        options.put("manifestCssFields", "css");
+        options.put("jsTarget", new File(root, "out/dist.js").getPath());
+        options.put("cssTarget", new File(root, "out/dist.css").getPath());
+        options.put("compress", "false");
+        options.put("sizeReport", sizes.getPath());
+        options.put("budgets", Arrays.asList(budget));
+        Packager packager = new Packager();
+        Cli.configure(packager, options);
+        packager.execute();
+        Map<String, Object> bundle = (Map<String, Object>) ((Map<String, Object>) Json.parse(read(sizes))).get("dist.js");
+        return (List<Object>) bundle.get("files");
+    }
+
+    @Test
+    public void testBundleBudgetSkipsMeasuring() throws IOException, MojoExecutionException, MojoFailureException {
+        Map<String, Object> budget = new LinkedHashMap<String, Object>();
+        budget.put("name", "dist.js");
+        budget.put("maxBytes", "1000");
+        assertTrue(measuredFiles(budget).isEmpty());
+        budget.put("name", "libraries");
+        assertEquals(1, measuredFiles(budget).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testHashFilenames() throws IOException, MojoExecutionException, MojoFailureException {
+        File root = createRoot("hashed");
+        createFile(root, "manifest.json", "{ \"js\": [\"a.js\"], \"css\": [\"c.css\"] }\n");
+        createFile(root, "a.js", "var a = 1;\n");
+        createFile(root, "c.css", "body { color: red; }\n");
+        File out = new File(root, "out");
+        File staleJs = createFile(out, "dist.0123abcd.js", "stale");
+        File staleGzip = createFile(out, "dist.0123abcd.js.gz", "stale");
+        File staleCss = createFile(out, "dist.0123abcd.css", "stale");
+        File[] kept = {
+            createFile(out, "dist-editing.0123abcd.js", "other bundle"),
+            createFile(out, "dist-editing.0123abcd.js.gz", "other bundle"),
+            createFile(out, "dist.0123abcd.js.map", "not a bundle"),
+            createFile(out, "dist.0123abc.js", "shorter hash"),
+            createFile(out, "dist.js", "plain name") };
+        File assets = new File(out, "assets.json");
+        assets.deleteOnExit();
+        Map<String, Object> options = new LinkedHashMap<String, Object>();
+        options.put("manifest", new File(root, "manifest.json").getPath());
+        options.put("manifestJsFields", "js");
+        options.put("manifestCssFields", "css");
+        options.put("jsTarget", new File(out, "dist.js").getPath());
+        options.put("cssTarget", new File(out, "dist.css").getPath());
+        options.put("compress", "false");
+        options.put("hashFilenames", "true");
+        options.put("gzip", "true");
+        options.put("gzipLevel", "9");
+        options.put("assetManifest", assets.getPath());
+        for (int build = 0; build < 2; build++) {
+            Packager packager = new Packager();
+            Cli.configure(packager, options);
+            packager.execute();
+        }
+
+        Map<String, Object> listing = (Map<String, Object>) Json.parse(read(assets));
+        assertEquals(Arrays.asList("dist.css", "dist.js"), new ArrayList<String>(listing.keySet()));
+        String js = (String) listing.get("dist.js");
+        String css = (String) listing.get("dist.css");
+        assertTrue(js, js.matches("dist\\.[0-9a-f]{8}\\.js"));
+        assertTrue(css, css.matches("dist\\.[0-9a-f]{8}\\.css"));
+        // The current bundles survive a rebuild with the same content
+        assertEquals("var a = 1;\n", read(new File(out, js)));
+        assertTrue(new File(out, js + ".gz").isFile());
+        assertTrue(new File(out, css).isFile());
+        assertFalse(staleJs.exists());
+        assertFalse(staleGzip.exists());
+        assertFalse(staleCss.exists());
+        for (File file : kept) {
+            assertTrue(file.getName(), file.exists());
+        }
+    }
+}
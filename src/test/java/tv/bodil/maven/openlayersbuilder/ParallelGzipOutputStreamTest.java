@@ -0,0 +1,61 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class ParallelGzipOutputStreamTest {
+    private static byte[] gunzip(byte[] data) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] sample(int size) {
+        Random random = new Random(1);
+        StringBuilder data = new StringBuilder();
+        while (data.length() < size) {
+            data.append("OpenLayers.Class").append(random.nextInt(500)).append(" = function() { return ").append(random.nextInt()).append("; };\n");
+        }
+        return data.toString().getBytes();
+    }
+
+    private static byte[] gzip(byte[] data, ExecutorService executor) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(out, 9, executor, 4);
+        gzip.write(data, 0, data.length / 3);
+        gzip.write(data, data.length / 3, data.length - data.length / 3);
+        gzip.close();
+        assertEquals(out.size(), gzip.getCompressedSize());
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int size : new int[] { 0, 100, ParallelGzipOutputStream.BLOCK_SIZE, 5 * ParallelGzipOutputStream.BLOCK_SIZE + 17 }) {
+                byte[] data = sample(size);
+                byte[] parallel = gzip(data, executor);
+                assertArrayEquals(data, gunzip(parallel));
+                assertArrayEquals(parallel, gzip(data, null));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.junit.Test;
+
+public class RequiresScannerTest {
+    private static String[] scan(boolean headerOnly, String data) throws IOException {
+        Collection<String> deps = new RequiresScanner(headerOnly).scan(new ByteArrayInputStream(data.getBytes("UTF-8")));
+        return deps.toArray(new String[0]);
+    }
+
+    @Test
+    public void testFullScan() throws IOException {
+        String data = "/**\n * @requires foo.js\n */\nvar x = 1;\n// @requires bar.js\n";
+        assertArrayEquals(new String[]{ "foo.js", "bar.js" }, scan(false, data));
+    }
+
+    @Test
+    public void testHeaderOnly() throws IOException {
+        String data = "/* Copyright */\r\n\r\n/**\r\n * @requires foo.js\r\n * @requires  bar.js\r\n */\r\n"
+            + "OpenLayers.Foo = {};\r\n// @requires baz.js\r\n";
+        assertArrayEquals(new String[]{ "foo.js", "bar.js" }, scan(true, data));
+    }
+
+    @Test
+    public void testHeaderOnlyLineComments() throws IOException {
+        String data = "// @requires foo.js\n  // @requires bar.js\n/* @requires baz.js */\nvar x;\n/* @requires quux.js */\n";
+        assertArrayEquals(new String[]{ "foo.js", "bar.js", "baz.js */" }, scan(true, data));
+    }
+
+    @Test
+    public void testLastDirectiveWins() throws IOException {
+        assertArrayEquals(new String[]{ "bar.js" }, scan(false, "@requires foo.js @requires bar.js"));
+        assertArrayEquals(new String[]{ "foo.js @requires" }, scan(false, "@requires foo.js @requires"));
+        assertArrayEquals(new String[0], scan(false, "@requires\n@requires \n"));
+    }
+}
@@ -0,0 +1,74 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SizeAnalyzerTest {
+    private static final File ROOT = new File("/project");
+    private static final File APP = new File(ROOT, "app.js");
+    private static final File MAP = new File(ROOT, "lib/OpenLayers/Map.js");
+    private static final File WMS = new File(ROOT, "lib/OpenLayers/Layer/WMS.js");
+
+    private static SizeAnalyzer analyze() {
+        SizeAnalyzer analyzer = new SizeAnalyzer(ROOT);
+        analyzer.add("dist.js", 700, Arrays.asList(
+                new SizeAnalyzer.FileSize(MAP, "OpenLayers", 1000, 400, false, Arrays.asList(APP)),
+                new SizeAnalyzer.FileSize(WMS, "OpenLayers/Layer", 500, 200, true, Arrays.asList(APP, MAP)),
+                new SizeAnalyzer.FileSize(APP, "application", 200, 100, false, Collections.<File>emptyList())));
+        return analyzer;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReport() {
+        Map<String, Object> bundle = (Map<String, Object>) analyze().toMap().get("dist.js");
+        assertEquals(Long.valueOf(700), bundle.get("bytes"));
+        Map<String, Object> groups = (Map<String, Object>) bundle.get("groups");
+        // Largest group first
+        assertEquals(Arrays.asList("OpenLayers", "OpenLayers/Layer", "application"), Arrays.asList(groups.keySet().toArray()));
+        List<Map<String, Object>> files = (List<Map<String, Object>>) bundle.get("files");
+        assertEquals("lib/OpenLayers/Layer/WMS.js", files.get(1).get("file"));
+        assertEquals(Arrays.asList("app.js", "lib/OpenLayers/Map.js"), files.get(1).get("requiredBy"));
+        assertEquals(Boolean.TRUE, files.get(1).get("estimated"));
+    }
+
+    @Test
+    public void testBudgets() {
+        SizeAnalyzer analyzer = analyze();
+        assertTrue(analyzer.checkBudgets(new Budget[] { new Budget("dist.js", 700), new Budget("OpenLayers", 600) }).isEmpty());
+        // A group's budget covers the groups below it
+        List<String> parent = analyzer.checkBudgets(new Budget[] { new Budget("OpenLayers", 599) });
+        assertEquals(1, parent.size());
+        assertTrue(parent.get(0).startsWith("OpenLayers is 600 bytes"));
+        assertEquals(1, analyzer.checkBudgets(new Budget[] { new Budget("OpenLayers/Lay", 1000) }).size());
+        List<String> exceeded = analyzer.checkBudgets(new Budget[] {
+            new Budget("dist.js", 600), new Budget("OpenLayers/Layer", 500), new Budget("application", 99) });
+        assertEquals(2, exceeded.size());
+        assertTrue(exceeded.get(0).startsWith("dist.js is 700 bytes"));
+        assertTrue(exceeded.get(1).startsWith("application is 100 bytes"));
+        assertEquals(1, analyzer.checkBudgets(new Budget[] { new Budget("missing.js", 1) }).size());
+    }
+
+    @Test
+    public void testVariantBudgets() {
+        SizeAnalyzer analyzer = new SizeAnalyzer(ROOT);
+        analyzer.add("debug", "dist-debug.js", 1500, Arrays.asList(
+                new SizeAnalyzer.FileSize(MAP, "OpenLayers", 1000, 1000, false, Arrays.asList(APP)),
+                new SizeAnalyzer.FileSize(APP, "application", 200, 200, false, Collections.<File>emptyList())));
+        analyzer.add("min", "dist.js", 500, Arrays.asList(
+                new SizeAnalyzer.FileSize(MAP, "OpenLayers", 1000, 400, false, Arrays.asList(APP)),
+                new SizeAnalyzer.FileSize(APP, "application", 200, 100, false, Collections.<File>emptyList())));
+        // Each variant has its own copy of a group, so they aren't added up
+        assertTrue(analyzer.checkBudgets(new Budget[] { new Budget("OpenLayers", 1000) }).isEmpty());
+        List<String> exceeded = analyzer.checkBudgets(new Budget[] { new Budget("OpenLayers", 500), new Budget("dist.js", 500) });
+        assertEquals(1, exceeded.size());
+        assertTrue(exceeded.get(0).startsWith("OpenLayers in variant debug is 1000 bytes"));
+    }
+}
@@ -0,0 +1,45 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class StripMinifierTest {
+    @Test
+    public void testStrip() {
+        String source = "/* Copyright */\n"
+            + "var a = 1,   b = 'x // y';  // trailing\n"
+            + "\n"
+            + "    var re = /[/*]+\\//g, c = a / b / 2;\n"
+            + "function f(x) {\n"
+            + "    return x + +a - -b;\n"
+            + "}\n";
+        String expected = "var a=1,b='x // y';\n"
+            + "var re=/[/*]+\\//g,c=a/b/2;\n"
+            + "function f(x){\n"
+            + "return x+ +a- -b;\n"
+            + "}";
+        assertEquals(expected, StripMinifier.strip(source));
+    }
+
+    @Test
+    public void testKeepsLineBreaks() {
+        assertEquals("a=b\n(c)", StripMinifier.strip("a = b /* one\n two */ (c)"));
+        assertEquals("return/ x /.test(y)", StripMinifier.strip("return / x /.test(y)"));
+        assertEquals("1 .toString()", StripMinifier.strip("1 .toString()"));
+    }
+
+    @Test
+    public void testRegexAfterHeader() {
+        assertEquals("if(x)/re/.test(s)", StripMinifier.strip("if (x) /re/.test(s)"));
+        assertEquals("if(x)/ r e /.test(s)", StripMinifier.strip("if (x) / r e /.test(s)"));
+        assertEquals("while(f(x))/ a /.exec(s)", StripMinifier.strip("while (f(x)) / a /.exec(s)"));
+        assertEquals("a=(b)/c/d", StripMinifier.strip("a = (b) / c / d"));
+    }
+
+    @Test
+    public void testUnbalanced() {
+        String source = "a = b) / c; // d";
+        assertEquals(source + "\n", StripMinifier.strip(source));
+    }
+}
@@ -0,0 +1,127 @@
+package tv.bodil.maven.openlayersbuilder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SymbolPrunerTest {
+    private File root;
+    private File base;
+    private File layer;
+    private File wms;
+    private File layerExtras;
+    private File renderer;
+    private File svg;
+    private File vml;
+    private File events;
+
+    private File write(String name, String data) throws IOException {
+        File file = new File(root, name);
+        file.getParentFile().mkdirs();
+        file.deleteOnExit();
+        FileWriter out = new FileWriter(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("pruner", "");
+        root.delete();
+        root.mkdirs();
+        root.deleteOnExit();
+        base = write("OpenLayers.js", "var OpenLayers = {};\n");
+        layer = write("OpenLayers/Layer.js", "OpenLayers.Layer = function() {};\n");
+        wms = write("OpenLayers/Layer/WMS.js", "OpenLayers.Layer.WMS = function() { OpenLayers.Layer.call(this); };\n");
+        layerExtras = write("OpenLayers/Layer/Extras.js", "OpenLayers.Layer.prototype.extra = function() {};\n");
+        renderer = write("OpenLayers/Renderer.js", "OpenLayers.Renderer = function() {};\n");
+        svg = write("OpenLayers/Renderer/SVG.js", "OpenLayers.Renderer.SVG = function() {};\n");
+        vml = write("OpenLayers/Renderer/VML.js", "OpenLayers.Renderer.VML = function() {};\n");
+        events = write("OpenLayers/Events.js", "OpenLayers.Events = function() {};\n");
+    }
+
+    private List<File> libraries() {
+        return Arrays.asList(base, layer, wms, layerExtras, renderer, svg, vml, events);
+    }
+
+    private SymbolPruner.Result prune(String application, File... keep) throws IOException {
+        File app = write("app.js", application);
+        return new SymbolPruner("OpenLayers", Charset.forName("UTF-8"))
+            .prune(libraries(), Collections.singletonList(app), Arrays.asList(keep));
+    }
+
+    @Test
+    public void testReference() throws IOException {
+        SymbolPruner.Result result = prune("var map = new OpenLayers.Layer.WMS();\n");
+        assertTrue(result.getKept().contains(wms));
+        assertTrue(result.getKept().contains(layer));
+        assertTrue(result.getKept().contains(base));
+        assertFalse(result.getKept().contains(renderer));
+        assertFalse(result.getKept().contains(svg));
+        assertTrue(result.getRemoved().containsKey(events));
+    }
+
+    @Test
+    public void testPrototypeExtender() throws IOException {
+        SymbolPruner.Result result = prune("var layer = new OpenLayers.Layer();\n");
+        assertTrue(result.getKept().contains(layerExtras));
+        assertFalse(result.getKept().contains(wms));
+    }
+
+    @Test
+    public void testPrototypeAssignment() throws IOException {
+        File layerMethods = write("OpenLayers/Layer/Methods.js", "OpenLayers.Layer.prototype = { draw: function() {} };\n");
+        File app = write("app.js", "var layer = new OpenLayers.Layer();\n");
+        List<File> libraries = Arrays.asList(base, layer, layerMethods, renderer);
+        SymbolPruner.Result result = new SymbolPruner("OpenLayers", Charset.forName("UTF-8"))
+            .prune(libraries, Collections.singletonList(app), Collections.<File>emptyList());
+        assertEquals(Arrays.asList(base, layer, layerMethods), result.getKept());
+    }
+
+    @Test
+    public void testSideEffects() throws IOException {
+        File setup = write("OpenLayers/Setup.js", "OpenLayers.Events = function() {};\nwindow.onload = OpenLayers.Events;\n");
+        File app = write("app.js", "var layer = new OpenLayers.Layer();\n");
+        List<File> libraries = Arrays.asList(base, layer, setup);
+        SymbolPruner.Result result = new SymbolPruner("OpenLayers", Charset.forName("UTF-8"))
+            .prune(libraries, Collections.singletonList(app), Collections.<File>emptyList());
+        assertEquals(libraries, result.getKept());
+    }
+
+    @Test
+    public void testKeep() throws IOException {
+        SymbolPruner.Result result = prune("var layer = new OpenLayers.Layer();\n", events);
+        assertTrue(result.getKept().contains(events));
+        assertFalse(result.getKept().contains(renderer));
+    }
+
+    @Test
+    public void testUnparseableApplication() throws IOException {
+        SymbolPruner.Result result = prune("var layer = new OpenLayers.Layer(;\n");
+        assertEquals(libraries(), result.getKept());
+        assertTrue(result.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void testComputedLookup() throws IOException {
+        SymbolPruner.Result result = prune("var type = 'SVG';\nvar r = new OpenLayers.Renderer[type]();\n");
+        assertTrue(result.getKept().contains(renderer));
+        assertTrue(result.getKept().contains(svg));
+        assertTrue(result.getKept().contains(vml));
+        assertFalse(result.getKept().contains(layer));
+
+        result = prune("var r = new OpenLayers.Renderer['SVG']();\n");
+        assertTrue(result.getKept().contains(svg));
+        assertFalse(result.getKept().contains(vml));
+    }
+}